@@ -0,0 +1,82 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of calculating fire times: per request and for a whole 24 hour profile.
+ */
+@State(Scope.Thread)
+public class ArrivalGenerationBenchmark {
+
+    @Param({"DETERMINISTIC", "POISSON", "BURST"})
+    public ArrivalDistribution distribution;
+
+    // 24 hours: ramp up to 6000 RPM, 22 hours constant, ramp down
+    @Param({"0-6000-60;6000-6000-1320;6000-0-60"})
+    public String rpmList;
+
+    private Iterable<RpmSegment> segments;
+    private PrimitiveIterator.OfLong arrivals;
+
+    @Setup(Level.Trial)
+    public void parse() {
+        segments = LoadProfile.parse(rpmList);
+    }
+
+    @Setup(Level.Iteration)
+    public void createArrivals() {
+        arrivals = newArrivals();
+    }
+
+    private PrimitiveIterator.OfLong newArrivals() {
+        switch (distribution) {
+            case POISSON:
+                return new StochasticArrivals(segments, new SplittableRandom(42), 1);
+            case BURST:
+                return new StochasticArrivals(segments, new SplittableRandom(42), 5);
+            case DETERMINISTIC:
+            default:
+                return new ArrivalIterator(segments);
+        }
+    }
+
+    /**
+     * Time to calculate the next fire time.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long nextArrival() {
+        if (!arrivals.hasNext()) {
+            arrivals = newArrivals();
+        }
+        return arrivals.nextLong();
+    }
+
+    /**
+     * Time to calculate all fire times of the profile.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long wholeProfile() {
+        PrimitiveIterator.OfLong all = newArrivals();
+        long last = 0;
+        while (all.hasNext()) {
+            last = all.nextLong();
+        }
+        return last;
+    }
+}
@@ -0,0 +1,85 @@
+package de.fschullerer.rpmthreads;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.apache.jmeter.config.ConfigTestElement;
+import org.apache.jmeter.control.GenericController;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.collections.ListedHashTree;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+        // Utility class.
+    }
+
+    /**
+     * Initialize JMeter with empty properties, as a test plan would find them without jmeter.properties.
+     */
+    static synchronized void initJMeter() {
+        if (JMeterUtils.getJMeterProperties() != null) {
+            return;
+        }
+        try {
+            File properties = File.createTempFile("jmeter", ".properties");
+            properties.deleteOnExit();
+            JMeterUtils.loadJMeterProperties(properties.getAbsolutePath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Create a RPM thread group that fires every request once.
+     *
+     * @param rpmList RPM list of the thread group.
+     * @return The thread group.
+     */
+    static RpmThreadGroup createThreadGroup(String rpmList) {
+        RpmThreadGroup group = new RpmThreadGroup();
+        group.setName("Benchmark");
+        group.setProperty(RpmThreadGroup.RPM_LIST, rpmList);
+        LoopController loop = new LoopController();
+        loop.setLoops(1);
+        loop.setContinueForever(false);
+        group.setSamplerController(loop);
+        return group;
+    }
+
+    /**
+     * Build a thread group tree like a realistic test plan: transaction like controllers each with
+     * some samplers, and each sampler with its own config element.
+     *
+     * @param group       Root of the tree.
+     * @param controllers Number of controllers.
+     * @param samplers    Number of samplers per controller.
+     * @return The tree.
+     */
+    static ListedHashTree createTree(RpmThreadGroup group, int controllers, int samplers) {
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(group);
+        for (int c = 0; c < controllers; c++) {
+            GenericController controller = new GenericController();
+            controller.setName("Controller " + c);
+            tree.add(group, controller);
+            for (int s = 0; s < samplers; s++) {
+                NoOpSampler sampler = new NoOpSampler();
+                sampler.setName("Sampler " + c + "-" + s);
+                tree.getTree(group).add(controller, sampler);
+                ConfigTestElement config = new ConfigTestElement();
+                config.setName("Config " + c + "-" + s);
+                for (int p = 0; p < 10; p++) {
+                    config.setProperty("property" + p, "value " + p);
+                }
+                tree.getTree(group).getTree(controller).add(sampler, config);
+            }
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,86 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.engine.StandardJMeterEngine;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.threads.ListenerNotifier;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs a RPM thread group end to end with a sampler that does nothing and reports how exact the
+ * requests were fired. The score is the run time of the profile; the accuracy is reported as
+ * secondary results (achieved RPM and lateness).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@State(Scope.Benchmark)
+public class InjectionAccuracyBenchmark {
+
+    /**
+     * Accuracy of the last run, reported by JMH next to the score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Accuracy {
+        public double achievedRpm;
+        public double latenessP50Millis;
+        public double latenessP99Millis;
+        public double latenessMaxMillis;
+        public long treeStockMisses;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            achievedRpm = 0;
+            latenessP50Millis = 0;
+            latenessP99Millis = 0;
+            latenessMaxMillis = 0;
+            treeStockMisses = 0;
+        }
+    }
+
+    // 10 seconds each
+    @Param({"6000-6000-0.1667", "60000-60000-0.1667"})
+    public String rpmList;
+
+    @Param({"false", "true"})
+    public boolean reuseThreads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.initJMeter();
+    }
+
+    @Benchmark
+    public void runProfile(Accuracy accuracy) {
+        RpmThreadGroup group = BenchmarkSupport.createThreadGroup(rpmList);
+        group.setProperty(RpmThreadGroup.REUSE_THREADS, reuseThreads);
+        ListedHashTree tree = BenchmarkSupport.createTree(group, 1, 1);
+        // the engine thread that starts a thread group always has variables
+        JMeterContextService.getContext().setVariables(new JMeterVariables());
+        group.start(1, new ListenerNotifier(), tree, new StandardJMeterEngine());
+        group.waitThreadsStopped();
+        ScheduleStats stats = group.getScheduleStats();
+        accuracy.achievedRpm = stats.getAverageRpm();
+        accuracy.latenessP50Millis = stats.getLatenessP50Millis();
+        accuracy.latenessP99Millis = stats.getLatenessP99Millis();
+        accuracy.latenessMaxMillis = stats.getLatenessMaxMillis();
+        accuracy.treeStockMisses = stats.getTreeStockMisses();
+        group.testEnded();
+    }
+}
@@ -0,0 +1,23 @@
+package de.fschullerer.rpmthreads;
+
+import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * Sampler that does nothing, so a benchmark only measures the thread group.
+ */
+public class NoOpSampler extends AbstractSampler {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public SampleResult sample(Entry e) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        result.sampleStart();
+        result.sampleEnd();
+        result.setSuccessful(true);
+        return result;
+    }
+}
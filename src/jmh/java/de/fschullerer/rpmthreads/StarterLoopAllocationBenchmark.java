@@ -0,0 +1,86 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.PrimitiveIterator;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.threads.ListenerNotifier;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Allocations of the thread starter per request. Run with the gc profiler:
+ * gradlew jmh -PjmhIncludes=StarterLoopAllocation -PjmhProfilers=gc
+ * <p>
+ * gc.alloc.rate.norm is the number of bytes allocated per request. Calculating the fire time and recording
+ * it should allocate nothing. Preparing a thread runs the code of ThreadStarter.fire() between taking the
+ * tree from the stock and starting the thread: the thread number and name, the JMeter thread and the start
+ * fields. Taking the tree only polls a queue; cloning it is done by the filler thread, see
+ * {@link ThreadCreationBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StarterLoopAllocationBenchmark {
+
+    // 24 hours with 6000 RPM
+    private static final String RPM_LIST = "6000-6000-1440";
+
+    private RpmThreadGroup group;
+    private RpmThreadGroup.ThreadStarter starter;
+    private ListedHashTree tree;
+    private ScheduleStats stats;
+    private RateControl rateControl;
+    private PrimitiveIterator.OfLong arrivals;
+    private int threadNum;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.initJMeter();
+        group = BenchmarkSupport.createThreadGroup(RPM_LIST);
+        tree = BenchmarkSupport.createTree(group, 1, 1);
+        JMeterContextService.getContext().setVariables(new JMeterVariables());
+        stats = new ScheduleStats(group, 1);
+        rateControl = new RateControl("Benchmark", 1);
+        group.resolveThreadSettings(1);
+        starter = group.new ThreadStarter(0, 1, 1, new ListenerNotifier(), tree, null);
+        arrivals = newArrivals();
+    }
+
+    private PrimitiveIterator.OfLong newArrivals() {
+        return new LiveArrivals(new ArrivalIterator(LoadProfile.parse(RPM_LIST)), rateControl,
+                segments -> new ArrivalIterator(segments), TimeUnit.MILLISECONDS.toNanos(100), 1,
+                () -> LoadProfile.duration(LoadProfile.parse(RPM_LIST)));
+    }
+
+    /**
+     * Calculate the next fire time and record it in the statistics, as done for every request.
+     */
+    @Benchmark
+    public long nextArrival() {
+        if (!arrivals.hasNext()) {
+            arrivals = newArrivals();
+        }
+        long next = arrivals.nextLong();
+        stats.requestFired(next, next);
+        return next;
+    }
+
+    /**
+     * Prepare the JMeter thread of a request like ThreadStarter.fire(), with the intended start time.
+     */
+    @Benchmark
+    public JMeterThread prepareThread() {
+        int num = threadNum++;
+        return starter.prepareThread(tree, System.nanoTime(), num, group.threadName(num), null);
+    }
+}
@@ -0,0 +1,78 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jmeter.threads.ListenerNotifier;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost of preparing a sampler thread for one request, depending on the size of the test plan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThreadCreationBenchmark {
+
+    // elements in the tree: 1 + controllers * (1 + 2 * samplers)
+    @Param({"1", "10", "50"})
+    public int controllers;
+
+    @Param({"10"})
+    public int samplers;
+
+    private RpmThreadGroup group;
+    private ListedHashTree tree;
+    private ListenerNotifier notifier;
+    private ClonedTreeSupply supply;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.initJMeter();
+        group = BenchmarkSupport.createThreadGroup("1-1-1");
+        tree = BenchmarkSupport.createTree(group, controllers, samplers);
+        notifier = new ListenerNotifier();
+        supply = new ClonedTreeSupply(tree, 100, "Benchmark");
+        supply.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        supply.stop();
+    }
+
+    /**
+     * Clone the tree on the calling thread, as done for every request without tree stock.
+     */
+    @Benchmark
+    public ListedHashTree cloneTree() {
+        return ClonedTreeSupply.cloneTree(tree);
+    }
+
+    /**
+     * Clone the tree and create the JMeter thread.
+     */
+    @Benchmark
+    public JMeterThread cloneAndCreateThread() {
+        return new JMeterThread(ClonedTreeSupply.cloneTree(tree), group, notifier);
+    }
+
+    /**
+     * Take the tree from the stock and create the JMeter thread. If the stock can not keep up,
+     * this includes cloning on the calling thread.
+     */
+    @Benchmark
+    public JMeterThread stockAndCreateThread() {
+        return new JMeterThread(supply.take(), group, notifier);
+    }
+}
@@ -0,0 +1,142 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Fire times for a capacity search: the requests per minute grow step by step (each step is a
+ * linear ramp like one period of the RPM list) until the response time at a percentile or the error
+ * rate exceeds its limit. Then the last good RPM is held for one step; if the limits are kept it is
+ * the maximum sustainable RPM, otherwise the RPM is lowered by one step and held again.
+ * <p>
+ * A step is rated with the samples that finished during it, so the step duration should be much
+ * longer than the response times.
+ */
+final class AdaptiveArrivals implements PrimitiveIterator.OfLong {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final double NANOS_PER_MINUTE = 60d * 1000 * 1000 * 1000;
+
+    private final String name;
+    private final ResponseCollector collector;
+    private final ScheduleStats stats;
+    private final double stepRpm;
+    private final double stepDuration;
+    private final double maxRpm;
+    private final double percentile;
+    private final long maxResponseTime;
+    private final double maxErrorRate;
+
+    // RPM at the start of the current step
+    private double rpm;
+    // true while the RPM is held to confirm it
+    private boolean verifying;
+    private boolean finished;
+    private long stepStart;
+    private ArrivalIterator step;
+
+    /**
+     * @param name            Name of the thread group for the log.
+     * @param collector       Response times of the thread group.
+     * @param stats           Statistics that get the result.
+     * @param startRpm        RPM at the start.
+     * @param stepRpm         RPM added in each step.
+     * @param stepDuration    Duration of a step in minutes.
+     * @param maxRpm          Highest RPM to try.
+     * @param percentile      Percentile of the response times to check, between 0 and 100.
+     * @param maxResponseTime Maximum response time at the percentile in milliseconds.
+     * @param maxErrorRate    Maximum failed samples in percent.
+     */
+    AdaptiveArrivals(String name, ResponseCollector collector, ScheduleStats stats, double startRpm, double stepRpm,
+                     double stepDuration, double maxRpm, double percentile, long maxResponseTime,
+                     double maxErrorRate) {
+        if (!(startRpm > 0 && stepRpm > 0 && stepDuration > 0)) {
+            throw new RuntimeException("Configuration error in adaptive rate: start RPM, step RPM and step duration "
+                                               + "must be greater than 0: start RPM: " + startRpm + " step RPM: "
+                                               + stepRpm + " step duration: " + stepDuration);
+        }
+        this.name = name;
+        this.collector = collector;
+        this.stats = stats;
+        this.stepRpm = stepRpm;
+        this.stepDuration = stepDuration;
+        this.maxRpm = maxRpm;
+        this.percentile = percentile;
+        this.maxResponseTime = maxResponseTime;
+        this.maxErrorRate = maxErrorRate;
+        this.rpm = startRpm;
+        this.step = newStep();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!finished && !step.hasNext()) {
+            nextStep();
+        }
+        return !finished;
+    }
+
+    /**
+     * @return Fire time of the next request in nanoseconds after the start of the test.
+     */
+    @Override
+    public long nextLong() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return stepStart + step.nextLong();
+    }
+
+    private ArrivalIterator newStep() {
+        double endRpm = verifying ? rpm : Math.min(rpm + stepRpm, maxRpm);
+        return new ArrivalIterator(Collections.singletonList(new RpmSegment(rpm, endRpm, stepDuration)));
+    }
+
+    /**
+     * Rate the finished step and start the next one.
+     */
+    private void nextStep() {
+        ResponseCollector.Window window = collector.nextWindow();
+        long responseTime = window.getResponseTime(percentile);
+        double errorRate = window.getErrorRate();
+        boolean ok = responseTime <= maxResponseTime && errorRate <= maxErrorRate;
+        log.info(String.format(Locale.ROOT, "%s: %s %.1f RPM: %d samples, %.0f. percentile %d ms, errors %.2f%% -> %s",
+                name, verifying ? "holding" : "ramp from", rpm, window.getCount(), percentile, responseTime,
+                errorRate, ok ? "ok" : "limit exceeded"));
+        if (verifying) {
+            if (ok) {
+                finish(rpm);
+                return;
+            }
+            rpm -= stepRpm;
+            if (rpm <= 0) {
+                finish(0);
+                return;
+            }
+        } else if (ok) {
+            rpm = Math.min(rpm + stepRpm, maxRpm);
+            if (rpm >= maxRpm) {
+                log.info(name + ": maximum of " + maxRpm + " RPM reached without exceeding the limits");
+                finish(maxRpm);
+                return;
+            }
+        } else {
+            // hold the RPM of the start of this step, it was ok at the end of the step before
+            verifying = true;
+        }
+        stepStart += Math.round(stepDuration * NANOS_PER_MINUTE);
+        step = newStep();
+    }
+
+    private void finish(double sustainableRpm) {
+        finished = true;
+        stats.setMaxSustainableRpm(sustainableRpm);
+        log.info(name + ": maximum sustainable RPM: " + sustainableRpm);
+    }
+}
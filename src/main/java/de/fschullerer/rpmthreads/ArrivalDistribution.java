@@ -0,0 +1,39 @@
+package de.fschullerer.rpmthreads;
+
+/**
+ * How the requests of a {@link RpmThreadGroup} are distributed over time.
+ * All distributions have the same mean requests per minute as given by the RPM list.
+ */
+public enum ArrivalDistribution {
+
+    /**
+     * The waiting time between two requests follows exactly the RPM list.
+     */
+    DETERMINISTIC,
+
+    /**
+     * Requests arrive randomly and independently (Poisson process), the waiting times are
+     * exponentially distributed.
+     */
+    POISSON,
+
+    /**
+     * Requests arrive in bursts at random times. The burst size is random with a mean of the burst factor.
+     */
+    BURST;
+
+    /**
+     * Get the distribution for a property value.
+     *
+     * @param value Name of the distribution.
+     * @return The distribution, {@link #DETERMINISTIC} if the value is empty or unknown.
+     */
+    public static ArrivalDistribution fromString(String value) {
+        for (ArrivalDistribution distribution : values()) {
+            if (distribution.name().equalsIgnoreCase(value.trim())) {
+                return distribution;
+            }
+        }
+        return DETERMINISTIC;
+    }
+}
@@ -0,0 +1,130 @@
+package de.fschullerer.rpmthreads;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Yields the fire times of all requests of a list of {@link RpmSegment}s one after the other.
+ * <p>
+ * The k-th request is fired when the requests of the RPM list, counted from the start of the test, reach k.
+ * Its time is calculated directly with {@link RpmSegment#timeOfRequest(double)}, not by adding up waiting
+ * times, so there is no rounding error that adds up, the periods fit together without a gap and the number
+ * of requests of the whole list is the area below the RPM line, rounded down.
+ * <p>
+ * Because every fire time is independent of the ones before, the iterator can also yield only every n-th
+ * request without calculating the others, e.g. for one of several thread starters or load generators.
+ * The memory needed does not depend on the length of the test.
+ */
+final class ArrivalIterator implements PrimitiveIterator.OfLong, Closeable {
+
+    private static final double NANOS_PER_MINUTE = 60d * 1000 * 1000 * 1000;
+
+    // tolerance for request counts like 0.1 * 30, which are not exact as double
+    private static final double EPSILON = 1e-9;
+
+    private final Iterator<RpmSegment> segments;
+    private final long step;
+
+    // current segment
+    private RpmSegment segment;
+    // start of the current segment in minutes
+    private double segmentStart;
+    // requests of all segments before the current one
+    private double countBefore;
+    private double countEnd;
+
+    // number of the next request, counted from 1
+    private long request;
+    private boolean hasNext;
+    private long next;
+
+    /**
+     * @param segments The periods of the test in the given order.
+     */
+    ArrivalIterator(Iterable<RpmSegment> segments) {
+        this(segments, 0, 1);
+    }
+
+    /**
+     * @param segments The periods of the test in the given order.
+     * @param index    Index of the first request to yield, 0 for the first request of the test.
+     * @param step     Yield every step-th request.
+     */
+    ArrivalIterator(Iterable<RpmSegment> segments, long index, long step) {
+        this(segments, 0, index, step);
+    }
+
+    /**
+     * @param segments   The rest of the periods of a test that is resumed, see {@link ResumedProfile}.
+     * @param startCount Requests of the test before the segments, not rounded. The requests keep their
+     *                   numbers, so index and step select the same requests as without resuming.
+     * @param index      Index of the first request to yield, 0 for the first request of the test.
+     * @param step       Yield every step-th request.
+     */
+    ArrivalIterator(Iterable<RpmSegment> segments, double startCount, long index, long step) {
+        if (step < 1 || index < 0 || startCount < 0) {
+            throw new IllegalArgumentException("Invalid index " + index + " or step " + step);
+        }
+        this.segments = segments.iterator();
+        this.step = step;
+        this.countBefore = startCount;
+        this.countEnd = startCount;
+        // first request of this index after the requests before the segments
+        long first = index + 1;
+        if (first <= startCount) {
+            first += ((long) Math.floor((startCount - first) / step) + 1) * step;
+        }
+        this.request = first;
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return Fire time of the next request in nanoseconds after the start of the test.
+     */
+    @Override
+    public long nextLong() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        long result = next;
+        request += step;
+        advance();
+        return result;
+    }
+
+    /**
+     * Close the file of the profile if the iteration is abandoned before the end.
+     */
+    @Override
+    public void close() {
+        LoadProfile.close(segments);
+    }
+
+    private void advance() {
+        while (segment == null || request > countEnd + EPSILON * Math.max(1, countEnd)) {
+            if (segment != null) {
+                segmentStart += segment.getDuration();
+                countBefore = countEnd;
+            }
+            if (!segments.hasNext()) {
+                hasNext = false;
+                return;
+            }
+            segment = segments.next();
+            countEnd = countBefore + segment.requestCount();
+        }
+        // the last request of a period is fired at its end, also if the count before is not exact, e.g. of a
+        // resumed test: close to a rate of 0 a tiny error of the count would move it milliseconds
+        double time = segmentStart + (request >= countEnd - EPSILON * Math.max(1, countEnd) ? segment.getDuration()
+                : segment.timeOfRequest(request - countBefore));
+        next = Math.round(time * NANOS_PER_MINUTE);
+        hasNext = true;
+    }
+}
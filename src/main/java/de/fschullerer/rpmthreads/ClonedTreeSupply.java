@@ -0,0 +1,185 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.jmeter.engine.TreeCloner;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+import org.apache.log.Priority;
+
+/**
+ * Bounded stock of ready-made clones of a thread group tree.
+ * A background thread keeps the stock filled, so the ThreadStarter does not have to run
+ * a {@link TreeCloner} over the whole test plan for every request.
+ * If the stock runs dry the tree is cloned directly and the miss is counted.
+ * <p>
+ * For a {@link SamplerMix} there is one template and one stock per variant of the tree,
+ * all filled by the same background thread.
+ */
+final class ClonedTreeSupply {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private final ListedHashTree[] templates;
+    private final String name;
+    // null if the trees are always cloned directly
+    private final BlockingQueue<ListedHashTree>[] stocks;
+    private final LongAdder taken = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+
+    private volatile boolean running = false;
+
+    private Thread filler;
+
+    /**
+     * @param template Tree to clone.
+     * @param capacity Maximum number of clones in stock, 0 to always clone directly.
+     * @param name     Name for the filler thread.
+     */
+    ClonedTreeSupply(ListedHashTree template, int capacity, String name) {
+        this(new ListedHashTree[] {template}, new int[] {capacity}, name);
+    }
+
+    /**
+     * @param templates  Variants of the tree to clone.
+     * @param capacities Maximum number of clones in stock per variant, all 0 to always clone directly.
+     * @param name       Name for the filler thread.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ClonedTreeSupply(ListedHashTree[] templates, int[] capacities, String name) {
+        this.templates = templates;
+        this.name = name;
+        boolean stocked = false;
+        for (int capacity : capacities) {
+            stocked |= capacity > 0;
+        }
+        if (stocked) {
+            stocks = new BlockingQueue[templates.length];
+            for (int i = 0; i < templates.length; i++) {
+                stocks[i] = new ArrayBlockingQueue<>(Math.max(1, capacities[i]));
+            }
+        } else {
+            stocks = null;
+        }
+    }
+
+    /**
+     * Start filling the stock in the background.
+     */
+    void start() {
+        if (stocks == null) {
+            return;
+        }
+        running = true;
+        filler = new Thread(this::fill, name + "-TreeCloner");
+        filler.setDaemon(true);
+        filler.start();
+    }
+
+    private void fill() {
+        if (stocks.length == 1) {
+            try {
+                while (running) {
+                    stocks[0].put(cloneTree(templates[0]));
+                }
+            } catch (InterruptedException e) {
+                log.log(Priority.DEBUG, "Tree cloner was interrupted");
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        while (running) {
+            boolean filled = false;
+            for (int i = 0; i < stocks.length && running; i++) {
+                // only this thread adds, so there is still room after the check
+                if (stocks[i].remainingCapacity() > 0) {
+                    stocks[i].add(cloneTree(templates[i]));
+                    filled = true;
+                }
+            }
+            if (!filled) {
+                // woken up by take()
+                LockSupport.park(this);
+            }
+            if (Thread.interrupted()) {
+                log.log(Priority.DEBUG, "Tree cloner was interrupted");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take a cloned tree from stock. Clones directly if the stock is empty.
+     *
+     * @return A tree that is not used by any other thread.
+     */
+    ListedHashTree take() {
+        return take(0);
+    }
+
+    /**
+     * Take a cloned variant of the tree from stock. Clones directly if the stock is empty.
+     *
+     * @param variant Index of the variant.
+     * @return A tree that is not used by any other thread.
+     */
+    ListedHashTree take(int variant) {
+        taken.increment();
+        ListedHashTree tree = stocks == null ? null : stocks[variant].poll();
+        if (tree == null) {
+            missed.increment();
+            tree = cloneTree(templates[variant]);
+        }
+        if (stocks != null && stocks.length > 1) {
+            LockSupport.unpark(filler);
+        }
+        return tree;
+    }
+
+    /**
+     * Stop the filler thread and drop all clones in stock.
+     */
+    void stop() {
+        running = false;
+        if (filler != null) {
+            filler.interrupt();
+        }
+        if (stocks != null) {
+            for (BlockingQueue<ListedHashTree> stock : stocks) {
+                stock.clear();
+            }
+        }
+        log.info("Tree stock of " + name + ": " + getTaken() + " trees taken, stock ran dry "
+                         + getMissed() + " times");
+    }
+
+    /**
+     * @return Number of trees taken.
+     */
+    long getTaken() {
+        return taken.sum();
+    }
+
+    /**
+     * @return Number of times the stock was empty and the tree had to be cloned directly.
+     */
+    long getMissed() {
+        return missed.sum();
+    }
+
+    /**
+     * Clone a tree.
+     *
+     * @param tree Tree to clone.
+     * @return The cloned tree.
+     */
+    static ListedHashTree cloneTree(ListedHashTree tree) {
+        TreeCloner cloner = new TreeCloner(true);
+        tree.traverse(cloner);
+        return cloner.getClonedTree();
+    }
+}
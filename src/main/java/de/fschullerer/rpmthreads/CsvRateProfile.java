@@ -0,0 +1,160 @@
+package de.fschullerer.rpmthreads;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jmeter.services.FileServer;
+
+/**
+ * Requests per minute read from a CSV file, e.g. the traffic rates of production. Every line contains a
+ * timestamp in seconds and the requests per minute at this time, separated by "," ";" or whitespace.
+ * Only the differences of the timestamps are used, so epoch seconds and seconds since the start both work.
+ * Between two lines the requests per minute change linearly. A header line, empty lines and lines starting
+ * with # are skipped, files ending with .gz are unzipped.
+ * <p>
+ * The file is read line by line while the test runs, so files of multi-day profiles need no memory. It is
+ * closed at its end or when the iterator is closed, see {@link LoadProfile#close(Object)}.
+ * Relative paths are resolved against the directory of the test plan.
+ */
+final class CsvRateProfile implements Iterable<RpmSegment> {
+
+    private final File file;
+
+    /**
+     * @param path Path of the CSV file.
+     */
+    CsvRateProfile(String path) {
+        this.file = resolve(path);
+    }
+
+    /**
+     * Resolve a relative path against the directory of the test plan.
+     *
+     * @param path Path of a file.
+     * @return The readable file.
+     */
+    static File resolve(String path) {
+        File resolved = new File(path);
+        if (!resolved.isAbsolute() && !resolved.exists()) {
+            resolved = new File(FileServer.getFileServer().getBaseDir(), path);
+        }
+        if (!resolved.canRead()) {
+            throw new RuntimeException("Configuration error: can not read file " + path);
+        }
+        return resolved;
+    }
+
+    @Override
+    public Iterator<RpmSegment> iterator() {
+        return new LoadProfile.SegmentIterator() {
+            private BufferedReader reader;
+            private int lineNumber;
+            // lines that are not empty and no comment
+            private int contentLines;
+            private boolean first = true;
+            private double lastTime;
+            private double lastRpm;
+            private RpmSegment next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && (reader != null || first)) {
+                    next = readSegment();
+                }
+                return next != null;
+            }
+
+            @Override
+            public RpmSegment next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                RpmSegment segment = next;
+                next = null;
+                return segment;
+            }
+
+            @Override
+            public void close() {
+                first = false;
+                next = null;
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // only read, nothing is lost
+                    }
+                    reader = null;
+                }
+            }
+
+            private RpmSegment readSegment() {
+                try {
+                    if (reader == null) {
+                        reader = open();
+                    }
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lineNumber++;
+                        line = line.trim();
+                        if (line.isEmpty() || line.startsWith("#")) {
+                            continue;
+                        }
+                        contentLines++;
+                        String[] values = line.split("[,;\\s]+");
+                        double time;
+                        double rpm;
+                        try {
+                            time = Double.parseDouble(values[0]);
+                            rpm = Double.parseDouble(values[1]);
+                        } catch (RuntimeException e) {
+                            if (first && contentLines == 1) {
+                                // header, possibly after comments
+                                continue;
+                            }
+                            throw new RuntimeException("Configuration error in RPM file " + file + " line "
+                                                               + lineNumber + ": timestamp and RPM expected: " + line);
+                        }
+                        if (rpm < 0 || (!first && time < lastTime)) {
+                            throw new RuntimeException("Configuration error in RPM file " + file + " line "
+                                                               + lineNumber
+                                                               + ": negative RPM or decreasing timestamp: " + line);
+                        }
+                        if (first) {
+                            first = false;
+                            lastTime = time;
+                            lastRpm = rpm;
+                            continue;
+                        }
+                        RpmSegment segment = new RpmSegment(lastRpm, rpm, (time - lastTime) / 60);
+                        lastTime = time;
+                        lastRpm = rpm;
+                        return segment;
+                    }
+                    first = false;
+                    reader.close();
+                    reader = null;
+                    return null;
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not read RPM file " + file, e);
+                }
+            }
+        };
+    }
+
+    private BufferedReader open() throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+    }
+}
@@ -0,0 +1,43 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Waits for deadlines on the {@link System#nanoTime()} clock.
+ * The thread is parked until shortly before the deadline and spins for the rest,
+ * because parking alone wakes up too late by the OS timer slack.
+ */
+final class DeadlineWaiter {
+
+    // Time before a deadline in which the thread spins instead of parking
+    static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(
+            JMeterUtils.getPropDefault("rpmthreadgroup.spin.micros", 200));
+
+    private DeadlineWaiter() {
+        // Utility class.
+    }
+
+    /**
+     * Wait until the deadline is reached. Returns at once if the deadline is in the past.
+     *
+     * @param deadline Deadline in nanoseconds of {@link System#nanoTime()}.
+     * @return true if the deadline was reached, false if the thread was interrupted before.
+     */
+    static boolean awaitDeadline(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+        return true;
+    }
+}
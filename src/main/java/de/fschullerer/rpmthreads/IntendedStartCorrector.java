@@ -0,0 +1,55 @@
+package de.fschullerer.rpmthreads;
+
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.processor.PostProcessor;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+
+/**
+ * Reports the first sample of every request of a {@link RpmThreadGroup} from the time it should have started
+ * according to the schedule instead of the time it really started. If the thread starter or the machine
+ * falls behind, the start delay is part of the response time and latency, as users would have seen it
+ * (no coordinated omission).
+ * <p>
+ * It is added as post-processor to the thread group tree when the test starts and is shared by all
+ * threads. Post-processors run before the listeners get the sample, so all listeners and result files see
+ * the corrected times.
+ */
+final class IntendedStartCorrector extends AbstractTestElement implements PostProcessor, NoThreadClone {
+
+    private static final long serialVersionUID = 1L;
+
+    // marks the variables of a request whose first sample is already corrected
+    private static final String CORRECTED = "rpm_intended_start_corrected";
+
+    @Override
+    public void process() {
+        // not getThreadContext(), it keeps the context of the first thread and this element is shared
+        JMeterContext context = JMeterContextService.getContext();
+        SampleResult result = context.getPreviousResult();
+        JMeterVariables variables = context.getVariables();
+        if (result == null || variables == null || variables.getObject(CORRECTED) != null) {
+            return;
+        }
+        String intendedStart = variables.get(RpmThreadGroup.INTENDED_START_VARIABLE);
+        if (intendedStart == null) {
+            // not started by the schedule, e.g. added with addNewThread
+            return;
+        }
+        variables.putObject(CORRECTED, Boolean.TRUE);
+        long delay = result.getStartTime() - Long.parseLong(intendedStart);
+        if (delay <= 0) {
+            return;
+        }
+        // the start time of a sample result can not be changed anymore, so the end time is moved to get the
+        // elapsed time and the time stamp of the result files is set to the intended start
+        boolean startTimeStamp = result.getTimeStamp() == result.getStartTime();
+        long end = result.getEndTime();
+        result.setEndTime(end + delay);
+        result.setTimeStamp(startTimeStamp ? result.getStartTime() - delay : end);
+        result.setLatency(result.getLatency() + delay);
+    }
+}
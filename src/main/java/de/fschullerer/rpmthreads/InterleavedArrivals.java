@@ -0,0 +1,64 @@
+package de.fschullerer.rpmthreads;
+
+import java.io.Closeable;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Takes every n-th fire time of another iterator, starting with a given index.
+ * If n iterators with the indexes 0 to n-1 fire their requests, the combined requests
+ * are exactly the requests of the original iterator.
+ */
+final class InterleavedArrivals implements PrimitiveIterator.OfLong, Closeable {
+
+    private final PrimitiveIterator.OfLong arrivals;
+    private final int count;
+
+    private boolean hasNext;
+    private long next;
+
+    /**
+     * @param arrivals All fire times.
+     * @param index    Index of the first fire time to take, between 0 and count - 1.
+     * @param count    Take every count-th fire time.
+     */
+    InterleavedArrivals(PrimitiveIterator.OfLong arrivals, int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Index " + index + " is not between 0 and " + (count - 1));
+        }
+        this.arrivals = arrivals;
+        this.count = count;
+        advance(index + 1);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    @Override
+    public long nextLong() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        long result = next;
+        advance(count);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        LoadProfile.close(arrivals);
+    }
+
+    private void advance(int steps) {
+        for (int i = 0; i < steps; i++) {
+            if (!arrivals.hasNext()) {
+                hasNext = false;
+                return;
+            }
+            next = arrivals.nextLong();
+        }
+        hasNext = true;
+    }
+}
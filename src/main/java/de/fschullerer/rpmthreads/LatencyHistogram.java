@@ -0,0 +1,100 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram for non-negative values with logarithmic buckets (HDR style).
+ * Each power of two is split into {@value #SUB_BUCKETS} buckets, so a recorded value is off by
+ * at most about 3%. Recording is a single atomic increment and can be done by any thread.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((65 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     *
+     * @param value Value to record.
+     */
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucketIndex(v));
+        totalCount.increment();
+        totalSum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * @return Largest recorded value.
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return Mean of all recorded values, 0 if nothing was recorded.
+     */
+    double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalSum.sum() / count;
+    }
+
+    /**
+     * Get the value at a percentile. Concurrent recordings may or may not be taken into account.
+     *
+     * @param percentile Percentile between 0 and 100.
+     * @return Upper bound of the bucket containing the percentile, 0 if nothing was recorded.
+     */
+    long getValueAtPercentile(double percentile) {
+        long count = 0;
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueInBucket(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index - (long) shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,245 @@
+package de.fschullerer.rpmthreads;
+
+import java.io.Closeable;
+import java.util.PrimitiveIterator;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Fire times of the RPM list with the runtime changes of a {@link RateControl} applied.
+ * <p>
+ * The requests between two fire times of the RPM list are spread evenly over this gap, so a scale of 2 fires
+ * two requests per gap and a scale of 0.5 one request every second gap. With a target RPM the RPM list
+ * goes on without firing and the requests are fired with the fixed rate.
+ * <p>
+ * Segments appended to the RPM list start at its end, not at the last fire time of this iterator, so the
+ * thread starters sharing the RPM list keep taking turns. The time after the last request of the RPM list is
+ * a gap without requests, so the fixed rate of a target RPM is also fired until the end.
+ * <p>
+ * The control is read every time a fire time is computed. To react on changes while waiting for a far
+ * away request, no fire time is more than one tick after the previous one: if the next request is
+ * further away, a wake-up time is returned instead and {@link #isWakeup()} is true.
+ */
+final class LiveArrivals implements PrimitiveIterator.OfLong, Closeable {
+
+    private static final double NANOS_PER_MINUTE = 60 * 1000 * 1000 * 1000d;
+    // rounding errors of the spread requests
+    private static final double EPSILON = 1e-9;
+
+    private final RateControl control;
+    private final Function<Iterable<RpmSegment>, PrimitiveIterator.OfLong> appendedArrivals;
+    private final long tick;
+    private final double share;
+    private final DoubleSupplier listMinutes;
+    // index of the next appended segments of the control
+    private int appendedIndex;
+    // end of the RPM list and the segments appended so far in minutes, NaN until the RPM list is finished
+    private double listEnd = Double.NaN;
+
+    // fire times of the RPM list, relative to baseOffset
+    private PrimitiveIterator.OfLong base;
+    private long baseOffset;
+    // current gap between two fire times of the RPM list
+    private long gapEnd;
+    private long gapLength;
+    private double gapScale = 1;
+    // the gap from the last request to the end of the RPM list
+    private boolean tail;
+    // requests of the current gap that are still to be fired between time and gapEnd
+    private double gapLeft;
+    // requests so far, the next request is fired when position reaches nextRequest
+    private double position;
+    private long nextRequest = 1;
+    private long time;
+    private long lastFire;
+    private boolean wakeup;
+    private boolean finished;
+
+    /**
+     * @param base             Fire times of the RPM list in nanoseconds after the start of the test.
+     * @param control          Runtime changes of the rate.
+     * @param appendedArrivals Creates the fire times of appended segments.
+     * @param tickNanos        Maximum time between two returned times in nanoseconds, 0 for no limit.
+     * @param share            Share of the target RPM fired by this iterator, if several iterators fire together.
+     * @param listMinutes      Duration of the RPM list of the base fire times, asked once when they are
+     *                         finished. NaN if it is not known (replay, adaptive rate), then appended segments
+     *                         start after the last fire time.
+     */
+    LiveArrivals(PrimitiveIterator.OfLong base, RateControl control,
+                 Function<Iterable<RpmSegment>, PrimitiveIterator.OfLong> appendedArrivals, long tickNanos,
+                 double share, DoubleSupplier listMinutes) {
+        this.base = base;
+        this.control = control;
+        this.appendedArrivals = appendedArrivals;
+        this.tick = tickNanos > 0 ? tickNanos : Long.MAX_VALUE / 4;
+        this.share = share;
+        this.listMinutes = listMinutes;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (finished) {
+            return false;
+        }
+        if (time < gapEnd || gapLeft >= nextRequest - position - EPSILON || nextGap()) {
+            return true;
+        }
+        finished = true;
+        return false;
+    }
+
+    /**
+     * @return Time to fire the next request or to wake up, in nanoseconds after the start of the test.
+     */
+    @Override
+    public long nextLong() {
+        wakeup = false;
+        double targetRpm = control.getTargetRpm() * share;
+        double scale = targetRpm > 0 ? 0 : control.getScale();
+        if (scale != gapScale) {
+            if (tail) {
+                gapLeft = 0;
+            } else if (gapLength > 0) {
+                gapLeft = scale * (gapEnd - time) / gapLength;
+            } else {
+                gapLeft = gapScale > 0 ? gapLeft / gapScale * scale : 0;
+            }
+            gapScale = scale;
+        }
+        while (true) {
+            long limit = Math.min(gapEnd, time + tick);
+            if (targetRpm > 0) {
+                long fire = Math.max(time, lastFire + Math.round(NANOS_PER_MINUTE / targetRpm));
+                if (fire <= limit) {
+                    return fire(fire);
+                }
+            } else {
+                long fire = nextRequestTime();
+                if (fire <= limit) {
+                    gapLeft = Math.max(0, gapLeft - (nextRequest - position));
+                    position = nextRequest;
+                    nextRequest++;
+                    return fire(fire);
+                }
+            }
+            if (gapEnd > time + tick) {
+                return wakeUp(time + tick);
+            }
+            time = gapEnd;
+            if (!nextGap()) {
+                finished = true;
+                wakeup = true;
+                return time;
+            }
+        }
+    }
+
+    /**
+     * Move on to the next wake-up without computing a fire time, if the last returned time was a wake-up,
+     * the rate did not change and the next wake-up is before the next request and in the same gap. Only the
+     * position in the gap is moved, no fire times of the RPM list are read, so this is cheap enough for the
+     * clock thread of the {@link SharedClock} and idle thread starters are not woken every tick.
+     *
+     * @return The next wake-up time in nanoseconds after the start of the test, or -1 if {@link #nextLong()}
+     * is needed.
+     */
+    long nextTick() {
+        if (!wakeup || finished || control.getTargetRpm() > 0 || control.getScale() != gapScale) {
+            return -1;
+        }
+        long next = time + tick;
+        if (next >= gapEnd || nextRequestTime() <= next) {
+            return -1;
+        }
+        return wakeUp(next);
+    }
+
+    /**
+     * @return Time of the next request of the current gap, Long.MAX_VALUE if there is none.
+     */
+    private long nextRequestTime() {
+        double needed = nextRequest - position;
+        if (gapLeft < needed - EPSILON) {
+            return Long.MAX_VALUE;
+        }
+        // the last request of a gap is fired at its end, without the rounding errors of the wake-ups
+        return gapLeft - needed < EPSILON ? gapEnd
+                : Math.min(gapEnd, time + Math.round(needed / gapLeft * (gapEnd - time)));
+    }
+
+    /**
+     * Move to a time in the current gap, the requests left are spread over the rest of it.
+     */
+    private long wakeUp(long next) {
+        double rest = gapLeft * (gapEnd - next) / (gapEnd - time);
+        position += gapLeft - rest;
+        gapLeft = rest;
+        time = next;
+        wakeup = true;
+        return time;
+    }
+
+    /**
+     * @return true if the last returned time is only a wake-up and no request is fired.
+     */
+    boolean isWakeup() {
+        return wakeup;
+    }
+
+    /**
+     * Close the file of the profile if the iteration is abandoned before the end.
+     */
+    @Override
+    public void close() {
+        LoadProfile.close(base);
+    }
+
+    private long fire(long fireTime) {
+        time = fireTime;
+        lastFire = fireTime;
+        return fireTime;
+    }
+
+    /**
+     * Move to the next gap of the RPM list, continue with appended segments at its end.
+     *
+     * @return false if the RPM list is finished and there are no appended segments.
+     */
+    private boolean nextGap() {
+        while (!base.hasNext()) {
+            if (Double.isNaN(listEnd)) {
+                double minutes = listMinutes.getAsDouble();
+                listEnd = Double.isNaN(minutes) ? gapEnd / NANOS_PER_MINUTE : minutes;
+            }
+            Iterable<RpmSegment> segments = control.getAppended(appendedIndex);
+            if (segments == null) {
+                long end = Math.round(listEnd * NANOS_PER_MINUTE);
+                if (end <= gapEnd) {
+                    return false;
+                }
+                tail = true;
+                startGap(end, 0);
+                return true;
+            }
+            appendedIndex++;
+            base = appendedArrivals.apply(segments);
+            baseOffset = Math.round(listEnd * NANOS_PER_MINUTE);
+            listEnd += LoadProfile.duration(segments);
+        }
+        tail = false;
+        startGap(Math.max(gapEnd, baseOffset + base.nextLong()), gapScale);
+        return true;
+    }
+
+    /**
+     * @param next     End of the new gap.
+     * @param requests Requests to fire in the new gap.
+     */
+    private void startGap(long next, double requests) {
+        position += gapLeft;
+        time = gapEnd;
+        gapLength = next - gapEnd;
+        gapEnd = next;
+        gapLeft = requests;
+    }
+}
@@ -0,0 +1,278 @@
+package de.fschullerer.rpmthreads;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * The RPM list compiled to a piecewise linear rate function: a sequence of {@link RpmSegment}s.
+ * Besides linear periods the RPM list can contain these shapes, all durations in minutes:
+ * <ul>
+ * <li>startRPM-endRPM-duration: linear change of the requests per minute</li>
+ * <li>hold:rpm-duration: constant requests per minute</li>
+ * <li>steps:startRPM-endRPM-count-duration: count equally long constant steps from startRPM to endRPM</li>
+ * <li>sine:meanRPM-amplitude-period-duration: sinus curve around meanRPM, e.g. a daily pattern with period
+ * 1440, approximated by {@value #SINE_PIECES} linear periods per sinus period</li>
+ * <li>spike:baseRPM-peakRPM-rise-hold-fall: linear rise to peakRPM, hold it and linear fall back to baseRPM</li>
+ * <li>file:path: requests per minute from a CSV file, see {@link CsvRateProfile}</li>
+ * </ul>
+ * The list is parsed and checked once. The periods of sinus curves and files are created while iterating,
+ * so long profiles need no memory. The iterators of a profile with files keep the file open until its end;
+ * if an iteration is abandoned before, e.g. because the test is stopped, it must be closed with
+ * {@link #close(Object)}.
+ */
+final class LoadProfile implements Iterable<RpmSegment> {
+
+    static final int SINE_PIECES = 96;
+
+    private final List<Iterable<RpmSegment>> parts;
+
+    private LoadProfile(List<Iterable<RpmSegment>> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * Iterator over periods that may keep a file open until it is closed.
+     */
+    interface SegmentIterator extends Iterator<RpmSegment>, Closeable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Close an iterator of periods or fire times that may keep a file of the profile open. Other iterators
+     * are ignored, so every iterator can be passed.
+     *
+     * @param iterator Iterator to close, may be null.
+     */
+    static void close(Object iterator) {
+        if (iterator instanceof Closeable) {
+            try {
+                ((Closeable) iterator).close();
+            } catch (IOException e) {
+                // the files of a profile are only read, nothing is lost
+            }
+        }
+    }
+
+    /**
+     * Parse a RPM list.
+     *
+     * @param rpmList Periods separated by ";", see class description.
+     * @return The compiled profile.
+     */
+    static LoadProfile parse(String rpmList) {
+        List<Iterable<RpmSegment>> parts = new ArrayList<>();
+        for (String entry : rpmList.split(";")) {
+            parts.add(parseEntry(entry.trim()));
+        }
+        return new LoadProfile(parts);
+    }
+
+    /**
+     * Scale the requests per minute of a profile, e.g. to the share of one load generator.
+     *
+     * @param profile Periods of the profile.
+     * @param factor  Factor for the requests per minute, the durations stay the same.
+     * @return The scaled periods, created while iterating.
+     */
+    static Iterable<RpmSegment> scale(Iterable<RpmSegment> profile, double factor) {
+        return () -> {
+            Iterator<RpmSegment> segments = profile.iterator();
+            return new SegmentIterator() {
+                @Override
+                public boolean hasNext() {
+                    return segments.hasNext();
+                }
+
+                @Override
+                public RpmSegment next() {
+                    RpmSegment segment = segments.next();
+                    return new RpmSegment(segment.getStartRPM() * factor, segment.getEndRPM() * factor,
+                            segment.getDuration());
+                }
+
+                @Override
+                public void close() {
+                    LoadProfile.close(segments);
+                }
+            };
+        };
+    }
+
+    /**
+     * Duration of a profile. Periods created while iterating are created once to add them up.
+     *
+     * @param profile Periods of the profile.
+     * @return Sum of the durations in minutes.
+     */
+    static double duration(Iterable<RpmSegment> profile) {
+        double duration = 0;
+        Iterator<RpmSegment> segments = profile.iterator();
+        try {
+            while (segments.hasNext()) {
+                duration += segments.next().getDuration();
+            }
+        } finally {
+            close(segments);
+        }
+        return duration;
+    }
+
+    private static Iterable<RpmSegment> parseEntry(String entry) {
+        int colon = entry.indexOf(':');
+        if (colon < 0) {
+            return Collections.singletonList(RpmSegment.parse(entry));
+        }
+        String type = entry.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        String args = entry.substring(colon + 1).trim();
+        switch (type) {
+            case "hold": {
+                double[] values = parseValues(entry, args, 2);
+                return Collections.singletonList(new RpmSegment(values[0], values[0], values[1]));
+            }
+            case "steps": {
+                double[] values = parseValues(entry, args, 4);
+                int count = (int) values[2];
+                if (count < 1) {
+                    throw new RuntimeException("Configuration error in RPM list: " + entry
+                                                       + ": number of steps must be at least 1");
+                }
+                List<RpmSegment> steps = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    double rpm = count == 1 ? values[0] : values[0] + (values[1] - values[0]) * i / (count - 1);
+                    steps.add(new RpmSegment(rpm, rpm, values[3] / count));
+                }
+                return steps;
+            }
+            case "sine": {
+                double[] values = parseValues(entry, args, 4);
+                if (values[1] > values[0]) {
+                    throw new RuntimeException("Configuration error in RPM list: " + entry
+                                                       + ": amplitude must not be larger than the mean RPM");
+                }
+                if (values[2] <= 0) {
+                    throw new RuntimeException("Configuration error in RPM list: " + entry
+                                                       + ": period must be larger than 0");
+                }
+                return new Sine(values[0], values[1], values[2], values[3]);
+            }
+            case "spike": {
+                double[] values = parseValues(entry, args, 5);
+                return Arrays.asList(new RpmSegment(values[0], values[1], values[2]),
+                        new RpmSegment(values[1], values[1], values[3]),
+                        new RpmSegment(values[1], values[0], values[4]));
+            }
+            case "file":
+                return new CsvRateProfile(args);
+            default:
+                throw new RuntimeException("Configuration error in RPM list: unknown type " + type + " in " + entry);
+        }
+    }
+
+    private static double[] parseValues(String entry, String args, int count) {
+        String[] parts = args.split("-");
+        if (parts.length != count) {
+            throw new RuntimeException("Configuration error in RPM list: " + entry + " needs " + count
+                                               + " values separated by -");
+        }
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            try {
+                values[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Configuration error in RPM list: " + entry + ": " + parts[i]
+                                                   + " is not a number");
+            }
+            if (values[i] < 0) {
+                throw new RuntimeException("Configuration error in RPM list: " + entry + ": " + parts[i]
+                                                   + " is negative");
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public Iterator<RpmSegment> iterator() {
+        Iterator<Iterable<RpmSegment>> partIterator = parts.iterator();
+        return new SegmentIterator() {
+            private Iterator<RpmSegment> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (!partIterator.hasNext()) {
+                        return false;
+                    }
+                    current = partIterator.next().iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public RpmSegment next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            @Override
+            public void close() {
+                // the parts before are finished, the parts after are not opened yet
+                LoadProfile.close(current);
+            }
+        };
+    }
+
+    /**
+     * Sinus curve as linear periods, the corners are on the curve.
+     */
+    private static final class Sine implements Iterable<RpmSegment> {
+
+        private final double mean;
+        private final double amplitude;
+        private final double period;
+        private final double duration;
+
+        Sine(double mean, double amplitude, double period, double duration) {
+            this.mean = mean;
+            this.amplitude = amplitude;
+            this.period = period;
+            this.duration = duration;
+        }
+
+        private double rpmAt(double time) {
+            return Math.max(0, mean + amplitude * Math.sin(2 * Math.PI * time / period));
+        }
+
+        @Override
+        public Iterator<RpmSegment> iterator() {
+            double piece = period / SINE_PIECES;
+            return new Iterator<RpmSegment>() {
+                private long index;
+
+                @Override
+                public boolean hasNext() {
+                    return index * piece < duration;
+                }
+
+                @Override
+                public RpmSegment next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    double start = index * piece;
+                    double end = Math.min(duration, ++index * piece);
+                    return new RpmSegment(rpmAt(start), rpmAt(end), end - start);
+                }
+            };
+        }
+    }
+}
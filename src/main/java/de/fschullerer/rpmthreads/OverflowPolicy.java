@@ -0,0 +1,38 @@
+package de.fschullerer.rpmthreads;
+
+/**
+ * What to do with a request if the maximum number of active threads of a {@link RpmThreadGroup} is reached.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Do not fire the request and count it as dropped.
+     */
+    DROP,
+
+    /**
+     * Wait for a free thread up to the maximum queue delay, drop the request if there is still none.
+     * Later requests are delayed as well while waiting.
+     */
+    QUEUE,
+
+    /**
+     * Stop the test.
+     */
+    STOP_TEST;
+
+    /**
+     * Get the policy for a property value.
+     *
+     * @param value Name of the policy.
+     * @return The policy, {@link #DROP} if the value is empty or unknown.
+     */
+    public static OverflowPolicy fromString(String value) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value.trim())) {
+                return policy;
+            }
+        }
+        return DROP;
+    }
+}
@@ -0,0 +1,257 @@
+package de.fschullerer.rpmthreads;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingWorker;
+
+/**
+ * Preview of the RPM list in the GUI: duration, total requests, peak RPM, the threads needed for an assumed
+ * response time (Little's law: active threads = requests per second * response time in seconds) and a plot
+ * of the requests per minute over time.
+ * <p>
+ * Everything is calculated from the {@link RpmSegment}s, not from single fire times, and files are streamed,
+ * so even 24 hour profiles with millions of requests are shown at once. The preview is calculated on a
+ * background thread, so long profile files do not block the editor; a calculation that is outdated by a newer
+ * one is cancelled.
+ */
+final class ProfilePreviewPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    // points of the plot
+    private static final int BUCKETS = 600;
+
+    private final JLabel summary = new JLabel();
+    private final Plot plot = new Plot();
+
+    // the running calculation, only used on the event thread
+    private transient SwingWorker<Preview, Void> worker;
+
+    ProfilePreviewPanel() {
+        super(new BorderLayout(5, 5));
+        summary.setFont(summary.getFont().deriveFont(Font.PLAIN));
+        add(summary, BorderLayout.NORTH);
+        add(plot, BorderLayout.CENTER);
+    }
+
+    /**
+     * Calculate the preview in the background and show it when it is ready. Must be called on the event thread.
+     *
+     * @param rpmList      RPM list to show.
+     * @param responseTime Assumed response time in milliseconds for the needed threads, 0 if unknown.
+     */
+    void update(String rpmList, double responseTime) {
+        if (worker != null) {
+            worker.cancel(true);
+        }
+        worker = new SwingWorker<Preview, Void>() {
+            @Override
+            protected Preview doInBackground() {
+                return Preview.calculate(LoadProfile.parse(rpmList), BUCKETS);
+            }
+
+            @Override
+            protected void done() {
+                if (worker != this) {
+                    // outdated by a newer calculation
+                    return;
+                }
+                worker = null;
+                try {
+                    show(get(), responseTime);
+                } catch (ExecutionException e) {
+                    summary.setForeground(Color.RED);
+                    summary.setText("Invalid RPM list: " + e.getCause().getMessage());
+                    plot.setPreview(null);
+                } catch (InterruptedException | CancellationException e) {
+                    // not shown
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void show(Preview preview, double responseTime) {
+        summary.setForeground(Color.BLACK);
+        String text = String.format(Locale.ROOT, "Duration: %s, total requests: %,d, peak RPM: %.1f, average RPM: %.1f",
+                formatMinutes(preview.duration), Math.round(preview.requests), preview.peakRpm,
+                preview.duration > 0 ? preview.requests / preview.duration : 0);
+        if (responseTime > 0) {
+            text += String.format(Locale.ROOT, ", needed threads at %.0f ms response time: peak %d, average %d",
+                    responseTime, neededThreads(preview.peakRpm, responseTime),
+                    neededThreads(preview.duration > 0 ? preview.requests / preview.duration : 0, responseTime));
+        }
+        summary.setText(text);
+        plot.setPreview(preview);
+    }
+
+    /**
+     * Little's law.
+     *
+     * @param rpm          Requests per minute.
+     * @param responseTime Response time in milliseconds.
+     * @return Number of requests active at the same time, rounded up.
+     */
+    static long neededThreads(double rpm, double responseTime) {
+        return (long) Math.ceil(rpm / 60 * responseTime / 1000);
+    }
+
+    private static String formatMinutes(double minutes) {
+        long seconds = Math.round(minutes * 60);
+        return String.format(Locale.ROOT, "%d:%02d:%02d h", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    /**
+     * Totals and the plot points of a profile, calculated in two streaming passes over the segments.
+     */
+    static final class Preview {
+
+        private double duration;
+        private double requests;
+        private double peakRpm;
+        // lowest and highest RPM within each bucket of the duration
+        private final double[] minRpm;
+        private final double[] maxRpm;
+
+        private Preview(int buckets) {
+            minRpm = new double[buckets];
+            maxRpm = new double[buckets];
+        }
+
+        static Preview calculate(Iterable<RpmSegment> profile, int buckets) {
+            Preview preview = new Preview(buckets);
+            // a file with an invalid line is closed by the finally blocks
+            Iterator<RpmSegment> segments = profile.iterator();
+            try {
+                while (segments.hasNext()) {
+                    checkCancelled();
+                    RpmSegment segment = segments.next();
+                    preview.duration += segment.getDuration();
+                    preview.requests += segment.requestCount();
+                    preview.peakRpm = Math.max(preview.peakRpm,
+                            Math.max(segment.getStartRPM(), segment.getEndRPM()));
+                }
+            } finally {
+                LoadProfile.close(segments);
+            }
+            if (preview.duration <= 0) {
+                return preview;
+            }
+            Arrays.fill(preview.minRpm, Double.NaN);
+            double bucketLength = preview.duration / buckets;
+            double start = 0;
+            segments = profile.iterator();
+            try {
+                while (segments.hasNext()) {
+                    checkCancelled();
+                    RpmSegment segment = segments.next();
+                    double end = start + segment.getDuration();
+                    int first = Math.min(buckets - 1, (int) (start / bucketLength));
+                    int last = Math.min(buckets - 1, (int) (end / bucketLength));
+                    for (int b = first; b <= last; b++) {
+                        // the RPM is linear, so the extremes within the bucket are at the clipped ends
+                        double from = Math.max(start, b * bucketLength);
+                        double to = Math.min(end, (b + 1) * bucketLength);
+                        preview.add(b, rpmAt(segment, start, from));
+                        preview.add(b, rpmAt(segment, start, to));
+                    }
+                    start = end;
+                }
+            } finally {
+                LoadProfile.close(segments);
+            }
+            return preview;
+        }
+
+        /**
+         * Stop a calculation that was cancelled by a newer one.
+         */
+        private static void checkCancelled() {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+        }
+
+        private static double rpmAt(RpmSegment segment, double segmentStart, double time) {
+            if (segment.getDuration() <= 0) {
+                return segment.getEndRPM();
+            }
+            double fraction = Math.max(0, Math.min(1, (time - segmentStart) / segment.getDuration()));
+            return segment.getStartRPM() + (segment.getEndRPM() - segment.getStartRPM()) * fraction;
+        }
+
+        private void add(int bucket, double rpm) {
+            if (Double.isNaN(minRpm[bucket]) || rpm < minRpm[bucket]) {
+                minRpm[bucket] = rpm;
+            }
+            maxRpm[bucket] = Math.max(maxRpm[bucket], rpm);
+        }
+    }
+
+    /**
+     * Requests per minute over time, one vertical line from the lowest to the highest RPM per bucket.
+     */
+    private static final class Plot extends JComponent {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient Preview preview;
+
+        Plot() {
+            setPreferredSize(new Dimension(600, 120));
+        }
+
+        void setPreview(Preview preview) {
+            this.preview = preview;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            int width = getWidth();
+            int height = getHeight();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setColor(Color.LIGHT_GRAY);
+            g.drawRect(0, 0, width - 1, height - 1);
+            Preview shown = preview;
+            if (shown == null || shown.peakRpm <= 0 || shown.duration <= 0) {
+                return;
+            }
+            int buckets = shown.maxRpm.length;
+            double yScale = (height - 4) / shown.peakRpm;
+            g.setColor(Color.BLUE);
+            int lastX = -1;
+            int lastY = -1;
+            for (int b = 0; b < buckets; b++) {
+                if (Double.isNaN(shown.minRpm[b])) {
+                    continue;
+                }
+                int x = (int) ((long) b * (width - 1) / buckets);
+                int top = height - 2 - (int) Math.round(shown.maxRpm[b] * yScale);
+                int bottom = height - 2 - (int) Math.round(shown.minRpm[b] * yScale);
+                g.drawLine(x, top, x, bottom);
+                if (lastX >= 0) {
+                    g.drawLine(lastX, lastY, x, top);
+                }
+                lastX = x;
+                lastY = top;
+            }
+            g.setColor(Color.DARK_GRAY);
+            g.drawString(String.format(Locale.ROOT, "%.0f RPM", shown.peakRpm), 4, 12);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package de.fschullerer.rpmthreads;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Runtime changes of the request rate of a {@link RpmThreadGroup}, set by JMX or by the JMeter properties
+ * rpmthreadgroup.&lt;name&gt;.scale, rpmthreadgroup.&lt;name&gt;.target_rpm and rpmthreadgroup.&lt;name&gt;.append
+ * (e.g. with __setProperty). The values are handed over with volatile fields and a copy-on-write list, so the
+ * thread starter never waits for the control path.
+ */
+final class RateControl implements RateControlMBean {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private final String name;
+    private final String propertyPrefix;
+    private final List<Iterable<RpmSegment>> appended = new CopyOnWriteArrayList<>();
+
+    private volatile double scale = 1;
+    private volatile double targetRpm;
+
+    // last seen values of the watched properties, only used by the watching thread
+    private String scaleProperty;
+    private String targetRpmProperty;
+    private String appendProperty;
+
+    private ObjectName objectName;
+
+    /**
+     * @param groupName  Name of the thread group, used for the property names.
+     * @param groupCount Number of the thread group in the test plan.
+     */
+    RateControl(String groupName, int groupCount) {
+        this.name = groupName + " " + groupCount;
+        this.propertyPrefix = "rpmthreadgroup." + groupName + ".";
+        // values set before the start are no changes
+        this.scaleProperty = JMeterUtils.getProperty(propertyPrefix + "scale");
+        this.targetRpmProperty = JMeterUtils.getProperty(propertyPrefix + "target_rpm");
+        this.appendProperty = JMeterUtils.getProperty(propertyPrefix + "append");
+    }
+
+    @Override
+    public double getScale() {
+        return scale;
+    }
+
+    @Override
+    public void setScale(double scale) {
+        if (scale < 0 || Double.isNaN(scale)) {
+            throw new IllegalArgumentException("Scale must not be negative: " + scale);
+        }
+        this.scale = scale;
+        log.info(name + ": RPM list scaled by " + scale);
+    }
+
+    @Override
+    public double getTargetRpm() {
+        return targetRpm;
+    }
+
+    @Override
+    public void setTargetRpm(double targetRpm) {
+        if (targetRpm < 0 || Double.isNaN(targetRpm)) {
+            throw new IllegalArgumentException("Target RPM must not be negative: " + targetRpm);
+        }
+        this.targetRpm = targetRpm;
+        log.info(name + (targetRpm > 0 ? ": target RPM set to " + targetRpm : ": back to the RPM list"));
+    }
+
+    @Override
+    public void appendRpmList(String rpmList) {
+        appended.add(LoadProfile.parse(rpmList));
+        log.info(name + ": appended " + rpmList + " to the RPM list");
+    }
+
+    /**
+     * Appended segments are kept, so every thread starter can read all of them.
+     *
+     * @param index Number of the appended segments, starting with 0.
+     * @return The appended segments, or null if there are no segments with this number yet.
+     */
+    Iterable<RpmSegment> getAppended(int index) {
+        return index < appended.size() ? appended.get(index) : null;
+    }
+
+    /**
+     * Take over changed values of the watched JMeter properties. An empty target_rpm property goes back to
+     * the RPM list. Invalid values are logged and ignored.
+     */
+    void watchProperties() {
+        String value = JMeterUtils.getProperty(propertyPrefix + "scale");
+        if (!Objects.equals(value, scaleProperty)) {
+            scaleProperty = value;
+            try {
+                setScale(value == null || value.trim().isEmpty() ? 1 : Double.parseDouble(value.trim()));
+            } catch (RuntimeException e) {
+                log.error(name + ": invalid value of property " + propertyPrefix + "scale: " + value);
+            }
+        }
+        value = JMeterUtils.getProperty(propertyPrefix + "target_rpm");
+        if (!Objects.equals(value, targetRpmProperty)) {
+            targetRpmProperty = value;
+            try {
+                setTargetRpm(value == null || value.trim().isEmpty() ? 0 : Double.parseDouble(value.trim()));
+            } catch (RuntimeException e) {
+                log.error(name + ": invalid value of property " + propertyPrefix + "target_rpm: " + value);
+            }
+        }
+        value = JMeterUtils.getProperty(propertyPrefix + "append");
+        if (!Objects.equals(value, appendProperty)) {
+            appendProperty = value;
+            if (value != null && !value.trim().isEmpty()) {
+                try {
+                    appendRpmList(value);
+                } catch (RuntimeException e) {
+                    log.error(name + ": invalid value of property " + propertyPrefix + "append: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Register as MBean in the platform MBean server. Failures are only logged.
+     */
+    void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("de.fschullerer.rpmthreads:type=RpmThreadGroupControl,name="
+                                                + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("Could not register control MBean for " + name, e);
+            objectName = null;
+        }
+    }
+
+    /**
+     * Remove the MBean from the platform MBean server.
+     */
+    void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.debug("Could not unregister MBean " + objectName + ": " + e);
+        }
+        objectName = null;
+    }
+}
@@ -0,0 +1,36 @@
+package de.fschullerer.rpmthreads;
+
+/**
+ * JMX control of the request rate of a running {@link RpmThreadGroup}. Changes take effect with the next
+ * request, at the latest after one control tick (JMeter property rpmthreadgroup.control.tick, 100 ms).
+ */
+public interface RateControlMBean {
+
+    /**
+     * @return Factor for the requests per minute of the RPM list, 1 is the unchanged load.
+     */
+    double getScale();
+
+    /**
+     * @param scale Factor for the requests per minute of the RPM list, 0 pauses the RPM list.
+     */
+    void setScale(double scale);
+
+    /**
+     * @return Requests per minute fired instead of the RPM list, 0 if the RPM list is used.
+     */
+    double getTargetRpm();
+
+    /**
+     * @param targetRpm Requests per minute fired instead of the RPM list, 0 to go back to the RPM list.
+     *                  The RPM list goes on in the background, so it continues at the current point in time.
+     */
+    void setTargetRpm(double targetRpm);
+
+    /**
+     * Append segments to the end of the RPM list. Must be done before the RPM list ends.
+     *
+     * @param rpmList Segments in the format of the RPM list, e.g. "10-20-1;20-20-5".
+     */
+    void appendRpmList(String rpmList);
+}
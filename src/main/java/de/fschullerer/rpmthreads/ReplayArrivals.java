@@ -0,0 +1,307 @@
+package de.fschullerer.rpmthreads;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Fire times of a recorded access log or timestamp file: every line is fired at its original offset to the
+ * first line, divided by the speed factor. The fields of the line are available as JMeter variables.
+ * <ul>
+ * <li>Access logs in common or combined log format: variables replay_ip, replay_user, replay_time,
+ * replay_method, replay_path, replay_protocol, replay_status and replay_bytes.</li>
+ * <li>Timestamp files: comma separated, the first column is the timestamp in epoch seconds, epoch
+ * milliseconds (values above 10^11) or ISO-8601. If the first line is a header, the variables are named
+ * replay_&lt;column name&gt;, otherwise replay_1, replay_2, ...</li>
+ * </ul>
+ * The whole line is always available as replay_line. Files ending with .gz are unzipped. Lines that can not
+ * be replayed, e.g. access log lines with the request "-" or without a valid timestamp, are skipped and
+ * counted; the replay only fails if no line of the file can be replayed.
+ * <p>
+ * A daemon thread reads and parses the file ahead into a bounded queue, so the thread starter does not
+ * wait for the disk as long as the reader keeps up.
+ */
+final class ReplayArrivals implements PrimitiveIterator.OfLong {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    // the request is optional, so lines like "-" are recognized as access log lines that can not be replayed
+    private static final Pattern ACCESS_LOG = Pattern.compile(
+            "^(\\S+) \\S+ (\\S+) \\[([^\\]]+)\\] \"(?:(\\S+) (\\S+)\\s*(\\S*)|[^\"]*)\" (\\d{3}) (\\S+).*");
+    private static final String[] ACCESS_LOG_NAMES = {"replay_ip", "replay_user", "replay_time", "replay_method",
+            "replay_path", "replay_protocol", "replay_status", "replay_bytes"};
+    private static final DateTimeFormatter ACCESS_LOG_TIME =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+
+    // marks the end of the file in the queue
+    private static final Entry END = new Entry(0, null, null);
+
+    private final File file;
+    private final double speed;
+    private final int nodeIndex;
+    private final int nodeCount;
+    private final BlockingQueue<Entry> queue;
+    private final Thread reader;
+
+    // variable names of the columns, set by the reader before the first entry is queued
+    private volatile String[] names;
+    // lines that can not be replayed, set by the reader at the end of the file
+    private volatile long skippedLines;
+
+    private Entry next;
+    private Entry current;
+
+    /**
+     * @param path      Path of the file, relative paths are resolved against the test plan directory.
+     * @param speed     Time compression, 2 fires the requests twice as fast as recorded.
+     * @param nodeIndex Only every nodeCount-th line starting with line nodeIndex is fired.
+     * @param nodeCount Number of load generators replaying the same file.
+     * @param readAhead Number of lines parsed in advance.
+     * @param groupName Name of the thread group, used for the name of the reader thread.
+     */
+    ReplayArrivals(String path, double speed, int nodeIndex, int nodeCount, int readAhead, String groupName) {
+        if (speed <= 0) {
+            throw new RuntimeException("Configuration error in replay: speed must be larger than 0: " + speed);
+        }
+        this.file = CsvRateProfile.resolve(path);
+        this.speed = speed;
+        this.nodeIndex = nodeIndex;
+        this.nodeCount = nodeCount;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, readAhead));
+        this.reader = new Thread(this::read, groupName + "-ReplayReader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                next = END;
+            }
+        }
+        return next != END;
+    }
+
+    /**
+     * @return Fire time of the next line in nanoseconds after the start of the test.
+     */
+    @Override
+    public long nextLong() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        current = next;
+        next = null;
+        return current.offset;
+    }
+
+    /**
+     * Put the fields of the line of the last returned fire time into variables.
+     *
+     * @param variables Variables to set, fields missing in the line are set to an empty string.
+     */
+    void putFields(JMeterVariables variables) {
+        if (current == null) {
+            return;
+        }
+        variables.put("replay_line", current.line);
+        String[] fieldNames = names;
+        for (int i = 0; i < fieldNames.length; i++) {
+            variables.put(fieldNames[i], i < current.values.length ? current.values[i] : "");
+        }
+    }
+
+    /**
+     * @return Number of lines that can not be replayed, complete when {@link #hasNext()} returned false.
+     */
+    long getSkippedLines() {
+        return skippedLines;
+    }
+
+    /**
+     * Stop reading the file.
+     */
+    void close() {
+        reader.interrupt();
+    }
+
+    private void read() {
+        long lines = 0;
+        long skipped = 0;
+        try (BufferedReader in = open()) {
+            String line;
+            long first = Long.MIN_VALUE;
+            long last = 0;
+            long index = 0;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] values;
+                long timestamp;
+                Matcher matcher = ACCESS_LOG.matcher(line);
+                if (matcher.matches()) {
+                    if (names == null) {
+                        names = ACCESS_LOG_NAMES;
+                    }
+                    values = new String[ACCESS_LOG_NAMES.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = matcher.group(i + 1);
+                    }
+                    timestamp = parseAccessLogTime(values[2]);
+                    if (values[3] == null || timestamp == Long.MIN_VALUE) {
+                        skipped = skip(line, skipped);
+                        continue;
+                    }
+                } else if (names == ACCESS_LOG_NAMES) {
+                    skipped = skip(line, skipped);
+                    continue;
+                } else {
+                    values = line.split(",", -1);
+                    timestamp = parseTimestamp(values[0].trim());
+                    if (timestamp == Long.MIN_VALUE) {
+                        if (names == null && lines == 0 && skipped == 0) {
+                            names = headerNames(values);
+                        } else {
+                            skipped = skip(line, skipped);
+                        }
+                        continue;
+                    }
+                    if (names == null) {
+                        names = numberedNames(values.length);
+                    }
+                }
+                lines++;
+                if (first == Long.MIN_VALUE) {
+                    first = timestamp;
+                }
+                if (index++ % nodeCount != nodeIndex) {
+                    continue;
+                }
+                // lines that are not in order are fired immediately
+                last = Math.max(last, Math.round((timestamp - first) / speed));
+                queue.put(new Entry(last, line, values));
+            }
+            skippedLines = skipped;
+            if (lines == 0 && skipped > 0) {
+                log.error("Could not replay " + file + ": none of its " + skipped + " lines can be replayed");
+            } else if (skipped > 0) {
+                log.warn("Skipped " + skipped + " lines of replay file " + file + ", replayed " + lines);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not replay " + file + ", stopped after " + lines + " lines", e);
+        }
+        if (names == null) {
+            names = new String[0];
+        }
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // stopped anyway
+        }
+    }
+
+    private BufferedReader open() throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 64 * 1024);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 256 * 1024);
+    }
+
+    /**
+     * Count a line that can not be replayed, log the first one.
+     *
+     * @return Number of skipped lines including this one.
+     */
+    private long skip(String line, long skipped) {
+        if (skipped == 0) {
+            log.warn("Skipping lines of replay file " + file + " that can not be replayed, the first is: " + line);
+        }
+        return skipped + 1;
+    }
+
+    /**
+     * @return Timestamp in nanoseconds, Long.MIN_VALUE if the time is invalid.
+     */
+    private static long parseAccessLogTime(String time) {
+        try {
+            Instant instant = OffsetDateTime.parse(time, ACCESS_LOG_TIME).toInstant();
+            return instant.getEpochSecond() * 1000_000_000L + instant.getNano();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @return Timestamp in nanoseconds, Long.MIN_VALUE if the value is no timestamp.
+     */
+    private static long parseTimestamp(String value) {
+        try {
+            double number = Double.parseDouble(value);
+            // epoch milliseconds have more than 11 digits for dates after 1973
+            return Math.round(number >= 1e11 ? number * 1000_000 : number * 1000_000_000);
+        } catch (NumberFormatException e) {
+            try {
+                Instant instant = OffsetDateTime.parse(value).toInstant();
+                return instant.getEpochSecond() * 1000_000_000L + instant.getNano();
+            } catch (DateTimeParseException e2) {
+                return Long.MIN_VALUE;
+            }
+        }
+    }
+
+    private static String[] headerNames(String[] header) {
+        String[] result = new String[header.length];
+        for (int i = 0; i < header.length; i++) {
+            result[i] = "replay_" + header[i].trim();
+        }
+        return result;
+    }
+
+    private static String[] numberedNames(int count) {
+        String[] result = new String[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = "replay_" + (i + 1);
+        }
+        return result;
+    }
+
+    private static final class Entry {
+        private final long offset;
+        private final String line;
+        private final String[] values;
+
+        private Entry(long offset, String line, String[] values) {
+            this.offset = offset;
+            this.line = line;
+            this.values = values;
+        }
+    }
+}
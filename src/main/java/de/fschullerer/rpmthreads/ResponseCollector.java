@@ -0,0 +1,80 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.testelement.AbstractTestElement;
+
+/**
+ * Collects response times and errors of all samplers of a {@link RpmThreadGroup} in windows.
+ * It is added to the thread group tree when the test starts and is shared by all threads.
+ */
+final class ResponseCollector extends AbstractTestElement implements SampleListener, NoThreadClone {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient AtomicReference<Window> current = new AtomicReference<>(new Window());
+
+    /**
+     * Response times and errors of one window.
+     */
+    static final class Window {
+        // response times in milliseconds
+        private final LatencyHistogram responseTimes = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        /**
+         * @return Number of samples.
+         */
+        long getCount() {
+            return responseTimes.getCount();
+        }
+
+        /**
+         * @param percentile Percentile between 0 and 100.
+         * @return Response time in milliseconds at the percentile.
+         */
+        long getResponseTime(double percentile) {
+            return responseTimes.getValueAtPercentile(percentile);
+        }
+
+        /**
+         * @return Failed samples in percent, 0 if there were no samples.
+         */
+        double getErrorRate() {
+            long count = getCount();
+            return count == 0 ? 0 : errors.sum() * 100d / count;
+        }
+    }
+
+    /**
+     * Close the current window and start a new one.
+     *
+     * @return The closed window.
+     */
+    Window nextWindow() {
+        return current.getAndSet(new Window());
+    }
+
+    @Override
+    public void sampleOccurred(SampleEvent e) {
+        Window window = current.get();
+        window.responseTimes.record(e.getResult().getTime());
+        if (!e.getResult().isSuccessful()) {
+            window.errors.increment();
+        }
+    }
+
+    @Override
+    public void sampleStarted(SampleEvent e) {
+        // Only finished samples are of interest
+    }
+
+    @Override
+    public void sampleStopped(SampleEvent e) {
+        // Only finished samples are of interest
+    }
+}
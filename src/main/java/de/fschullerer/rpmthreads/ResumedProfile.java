@@ -0,0 +1,104 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The rest of a profile after an offset, e.g. to resume a long test that died. The position is calculated
+ * from the periods only: the periods before the offset are skipped without calculating their fire times,
+ * the period containing the offset is split at it.
+ */
+final class ResumedProfile implements Iterable<RpmSegment> {
+
+    private final Iterable<RpmSegment> profile;
+    private final double offset;
+    private final long segmentIndex;
+    private final double requestsBefore;
+
+    /**
+     * @param profile The whole profile.
+     * @param offset  Minutes of the profile to skip.
+     */
+    ResumedProfile(Iterable<RpmSegment> profile, double offset) {
+        this.profile = profile;
+        this.offset = Math.max(0, offset);
+        long index = 0;
+        double start = 0;
+        double requests = 0;
+        Iterator<RpmSegment> segments = profile.iterator();
+        try {
+            while (segments.hasNext()) {
+                RpmSegment segment = segments.next();
+                if (start + segment.getDuration() > this.offset) {
+                    requests += segment.requestsUntil(this.offset - start);
+                    break;
+                }
+                start += segment.getDuration();
+                requests += segment.requestCount();
+                index++;
+            }
+        } finally {
+            LoadProfile.close(segments);
+        }
+        this.segmentIndex = index;
+        this.requestsBefore = requests;
+    }
+
+    /**
+     * @return Index of the period containing the offset, the number of periods if the offset is after the end.
+     */
+    long getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * @return Requests of the profile before the offset, not rounded.
+     */
+    double getRequestsBefore() {
+        return requestsBefore;
+    }
+
+    @Override
+    public Iterator<RpmSegment> iterator() {
+        Iterator<RpmSegment> all = profile.iterator();
+        return new LoadProfile.SegmentIterator() {
+            private double start;
+            private boolean skipped;
+
+            @Override
+            public boolean hasNext() {
+                skip();
+                return all.hasNext();
+            }
+
+            @Override
+            public RpmSegment next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                RpmSegment segment = all.next();
+                if (start < offset) {
+                    // the period containing the offset
+                    segment = segment.from(offset - start);
+                    start = offset;
+                }
+                return segment;
+            }
+
+            @Override
+            public void close() {
+                LoadProfile.close(all);
+            }
+
+            private void skip() {
+                if (skipped) {
+                    return;
+                }
+                skipped = true;
+                for (long i = 0; i < segmentIndex && all.hasNext(); i++) {
+                    start += all.next().getDuration();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+package de.fschullerer.rpmthreads;
+
+/**
+ * One period of the RPM list: the requests per minute change linearly from startRPM to endRPM
+ * within duration minutes.
+ */
+final class RpmSegment {
+
+    private final double startRPM;
+    private final double endRPM;
+    private final double duration;
+
+    /**
+     * @param startRPM The amount of requests per minute that should be fired at the start of this period.
+     * @param endRPM   The amount of requests per minute that should be fired at the end of this period.
+     * @param duration The duration (in minutes) of this requests per minute period.
+     */
+    RpmSegment(double startRPM, double endRPM, double duration) {
+        this.startRPM = startRPM;
+        this.endRPM = endRPM;
+        this.duration = duration;
+    }
+
+    double getStartRPM() {
+        return startRPM;
+    }
+
+    double getEndRPM() {
+        return endRPM;
+    }
+
+    double getDuration() {
+        return duration;
+    }
+
+    /**
+     * Number of requests of this period: the area below the RPM line.
+     *
+     * @return Number of requests, not rounded.
+     */
+    double requestCount() {
+        return (startRPM + endRPM) / 2 * duration;
+    }
+
+    /**
+     * Number of requests from the start of this period until a time: R(time).
+     *
+     * @param time Time in minutes after the start of the period.
+     * @return Number of requests, not rounded.
+     */
+    double requestsUntil(double time) {
+        if (time <= 0 || duration <= 0) {
+            return 0;
+        }
+        if (time >= duration) {
+            return requestCount();
+        }
+        return (startRPM + rpmAt(time)) / 2 * time;
+    }
+
+    /**
+     * The rest of this period after a time.
+     *
+     * @param time Time in minutes after the start of the period.
+     * @return The period from time to the end.
+     */
+    RpmSegment from(double time) {
+        double start = Math.max(0, Math.min(duration, time));
+        return new RpmSegment(rpmAt(start), endRPM, duration - start);
+    }
+
+    private double rpmAt(double time) {
+        return duration <= 0 ? endRPM : startRPM + (endRPM - startRPM) * time / duration;
+    }
+
+    /**
+     * Time at which a number of requests is reached. Inverse function of
+     * R(n) = startRPM * n + (endRPM - startRPM) / duration * n * n / 2.
+     *
+     * @param count Number of requests since the start of the period, between 0 and {@link #requestCount()}.
+     * @return Time in minutes after the start of the period.
+     */
+    double timeOfRequest(double count) {
+        if (count <= 0 || duration <= 0) {
+            return 0;
+        }
+        if (count >= requestCount()) {
+            return duration;
+        }
+        double tana = (endRPM - startRPM) / duration;
+        // same as (-startRPM + sqrt(startRPM^2 + 2 * tana * count)) / tana, but without cancellation
+        // and also valid for tana == 0; the radicand is at least endRPM^2 for count <= requestCount(),
+        // only rounding can make it negative for a period falling to 0
+        double time = 2 * count / (startRPM + Math.sqrt(Math.max(0, startRPM * startRPM + 2 * tana * count)));
+        return Math.min(time, duration);
+    }
+
+    /**
+     * Parse one linear period of the RPM list.
+     *
+     * @param rpmTriple Requests per minute and duration in the syntax startRPM-endRPM-duration.
+     * @return The period.
+     */
+    static RpmSegment parse(String rpmTriple) {
+        String[] oneRPMTriple = rpmTriple.split("-");
+        if (oneRPMTriple.length < 3) {
+            throw new RuntimeException("CF026: Configuration error in RPM list: " + rpmTriple
+                                               + " is not startRPM-endRPM-duration");
+        }
+        double startRPM = 0;
+        double endRPM = 0;
+        double duration = 0;
+        try {
+            startRPM = Double.valueOf(oneRPMTriple[0].trim());
+            endRPM = Double.valueOf(oneRPMTriple[1].trim());
+            duration = Double.valueOf(oneRPMTriple[2].trim());
+            if (startRPM < 0 || endRPM < 0 || duration < 0) {
+                throw new RuntimeException(
+                        "Configuration error in setting performance test values: One or more values are negative: StartRPM: "
+                                + startRPM + " endRPM: " + endRPM + " duration: "
+                                + duration);
+            }
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(
+                    "Configuration error in setting performance test values: One or more values are not a number: "
+                            + oneRPMTriple[0] + " " + oneRPMTriple[1] + " " + oneRPMTriple[2]);
+        }
+        return new RpmSegment(startRPM, endRPM, duration);
+    }
+}
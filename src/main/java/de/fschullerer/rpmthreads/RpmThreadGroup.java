@@ -1,17 +1,31 @@
 package de.fschullerer.rpmthreads;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.jmeter.engine.StandardJMeterEngine;
-import org.apache.jmeter.engine.TreeCloner;
+import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.threads.AbstractThreadGroup;
 import org.apache.jmeter.threads.JMeterContext;
 import org.apache.jmeter.threads.JMeterContextService;
 import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jmeter.threads.JMeterVariables;
 import org.apache.jmeter.threads.ListenerNotifier;
 import org.apache.jmeter.util.JMeterUtils;
 import org.apache.jorphan.collections.ListedHashTree;
@@ -22,7 +36,7 @@ import org.apache.log.Priority;
 /**
  * ThreadGroup class.
  */
-public class RpmThreadGroup extends AbstractThreadGroup {
+public class RpmThreadGroup extends AbstractThreadGroup implements TestStateListener {
 
     /** serialVersionUID */
     private static final long serialVersionUID = 1L;
@@ -32,124 +46,1266 @@ public class RpmThreadGroup extends AbstractThreadGroup {
      */
     public static final String RPM_LIST = "ThreadGroup.rpm_list";
 
+    /**
+     * Distribution of the requests over time, see {@link ArrivalDistribution}
+     */
+    public static final String ARRIVAL_DISTRIBUTION = "ThreadGroup.rpm_arrival_distribution";
+
+    /**
+     * Mean number of requests per burst with {@link ArrivalDistribution#BURST}
+     */
+    public static final String BURST_FACTOR = "ThreadGroup.rpm_burst_factor";
+
+    /**
+     * Seed for the random numbers of the stochastic distributions, empty for a random seed
+     */
+    public static final String RANDOM_SEED = "ThreadGroup.rpm_random_seed";
+
+    /**
+     * Search the maximum sustainable RPM instead of following the RPM list
+     */
+    public static final String ADAPTIVE = "ThreadGroup.rpm_adaptive";
+
+    /**
+     * RPM at the start of the adaptive rate control
+     */
+    public static final String ADAPTIVE_START_RPM = "ThreadGroup.rpm_adaptive_start_rpm";
+
+    /**
+     * RPM added in each step of the adaptive rate control
+     */
+    public static final String ADAPTIVE_STEP_RPM = "ThreadGroup.rpm_adaptive_step_rpm";
+
+    /**
+     * Duration in minutes of a step of the adaptive rate control
+     */
+    public static final String ADAPTIVE_STEP_DURATION = "ThreadGroup.rpm_adaptive_step_duration";
+
+    /**
+     * Highest RPM the adaptive rate control tries
+     */
+    public static final String ADAPTIVE_MAX_RPM = "ThreadGroup.rpm_adaptive_max_rpm";
+
+    /**
+     * Percentile of the response times checked by the adaptive rate control
+     */
+    public static final String ADAPTIVE_PERCENTILE = "ThreadGroup.rpm_adaptive_percentile";
+
+    /**
+     * Maximum response time in milliseconds at the percentile
+     */
+    public static final String ADAPTIVE_MAX_RESPONSE_TIME = "ThreadGroup.rpm_adaptive_max_response_time";
+
+    /**
+     * Maximum failed samples in percent
+     */
+    public static final String ADAPTIVE_MAX_ERROR_RATE = "ThreadGroup.rpm_adaptive_max_error_rate";
+
+    /**
+     * Reuse idle sampler threads from a pool instead of creating a new thread per request
+     */
+    public static final String REUSE_THREADS = "ThreadGroup.rpm_reuse_threads";
+
+    /**
+     * Run sampler threads as virtual threads if the JVM supports it
+     */
+    public static final String VIRTUAL_THREADS = "ThreadGroup.rpm_virtual_threads";
+
+    /**
+     * Maximum number of active sampler threads, 0 for no limit
+     */
+    public static final String MAX_THREADS = "ThreadGroup.rpm_max_threads";
+
+    /**
+     * What to do if the maximum number of active threads is reached, see {@link OverflowPolicy}
+     */
+    public static final String OVERFLOW_POLICY = "ThreadGroup.rpm_overflow_policy";
+
+    /**
+     * Maximum time in milliseconds a request waits for a free thread with {@link OverflowPolicy#QUEUE}
+     */
+    public static final String MAX_QUEUE_DELAY = "ThreadGroup.rpm_max_queue_delay";
+
+    /**
+     * Time in milliseconds the active threads may finish their requests when the test is stopped
+     */
+    public static final String DRAIN_PERIOD = "ThreadGroup.rpm_drain_period";
+
+    /**
+     * Access log or timestamp file to replay instead of the RPM list
+     */
+    public static final String REPLAY_FILE = "ThreadGroup.rpm_replay_file";
+
+    /**
+     * Time compression of the replay, 2 is twice as fast as recorded
+     */
+    public static final String REPLAY_SPEED = "ThreadGroup.rpm_replay_speed";
+
+    /**
+     * Every request runs only one of the samplers and controllers directly below the thread group
+     */
+    public static final String WEIGHTED_MIX = "ThreadGroup.rpm_weighted_mix";
+
+    /**
+     * Weights of the weighted mix: name1=weight1;name2=weight2
+     */
+    public static final String MIX_WEIGHTS = "ThreadGroup.rpm_mix_weights";
+
+    /**
+     * Number of threads firing the requests, each fires every n-th request
+     */
+    public static final String STARTER_THREADS = "ThreadGroup.rpm_starter_threads";
+
+    /**
+     * Assumed response time in milliseconds for the needed threads in the preview of the GUI
+     */
+    public static final String PREVIEW_RESPONSE_TIME = "ThreadGroup.rpm_preview_response_time";
+
+    /**
+     * Report the first sample of every request from its intended start time, see {@link IntendedStartCorrector}
+     */
+    public static final String CORRECT_START_DELAY = "ThreadGroup.rpm_correct_start_delay";
+
+    /**
+     * Minutes of the RPM list to skip at the start, e.g. to resume a long test
+     */
+    public static final String START_OFFSET = "ThreadGroup.rpm_start_offset";
+
+    /**
+     * File the position in the RPM list is written to, a test resumes from it, see {@link ScheduleCheckpoint}
+     */
+    public static final String CHECKPOINT_FILE = "ThreadGroup.rpm_checkpoint_file";
+
+    /**
+     * Variable with the time in epoch milliseconds a request should have started according to the schedule
+     */
+    public static final String INTENDED_START_VARIABLE = "rpm_intended_start";
+
     private static final long WAIT_TO_DIE = JMeterUtils.getPropDefault("jmeterengine.threadstop.wait",
             5 * 1000); // 5
     // seconds
 
-    private static final Logger log = LoggingManager.getLoggerForClass();
+    // Number of cloned thread group trees to keep ready, 0 to clone for each request
+    private static final int CLONE_STOCK = JMeterUtils.getPropDefault("rpmthreadgroup.clone.stock", 100);
+
+    // Seconds between two log lines with the schedule statistics, 0 to only log at the end
+    private static final long STATS_INTERVAL = JMeterUtils.getPropDefault("rpmthreadgroup.stats.interval", 60);
+
+    // Milliseconds until a runtime rate change takes effect at the latest
+    private static final long CONTROL_TICK = JMeterUtils.getPropDefault("rpmthreadgroup.control.tick", 100);
+
+    // Fire the requests of all thread groups with one clock thread, see SharedClock
+    private static final boolean SHARED_CLOCK = JMeterUtils.getPropDefault("rpmthreadgroup.shared.clock", false);
+
+    // Seconds between two writes of the checkpoint file
+    private static final long CHECKPOINT_INTERVAL = JMeterUtils.getPropDefault(
+            "rpmthreadgroup.checkpoint.interval", 60);
+
+    // Number of lines of a replay file parsed in advance
+    private static final int REPLAY_READ_AHEAD = JMeterUtils.getPropDefault("rpmthreadgroup.replay.readahead",
+            10000);
+
+    // How long an idle pooled worker waits for the next request before it ends
+    private static final long WORKER_KEEP_ALIVE = JMeterUtils.getPropDefault("rpmthreadgroup.worker.keepalive",
+            60 * 1000); // 60 seconds
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    /**
+     * Is test (still) running?
+     */
+    private volatile boolean running = false;
+
+    // List of active threads, not serialized with the test plan
+    private transient ThreadRegistry allThreads = new ThreadRegistry();
+
+    private transient Thread[] threadStarters = new Thread[0];
+
+    // Thread starters firing with the shared clock instead of own threads
+    private transient ThreadStarter[] sharedStarters = new ThreadStarter[0];
+
+    // Counted down when a thread starter has fired all its requests or is stopped
+    private transient CountDownLatch startersDone = new CountDownLatch(0);
+
+    // Pool of reusable sampler threads, only used if REUSE_THREADS is set
+    private transient ExecutorService workerPool;
+
+    // Start sampler threads as virtual threads
+    private transient boolean useVirtualThreads;
+
+    // Ready-made clones of the thread group tree, one supply per thread starter
+    private transient ClonedTreeSupply[] treeSupplies;
+
+    // Seed of the stochastic distributions, the same for all thread starters
+    private transient long arrivalSeed;
+
+    // Start of the schedule in nanoseconds of System.nanoTime()
+    private transient long startTime;
+
+    // Start of the schedule in epoch milliseconds, the same moment as startTime
+    private transient long startEpochMillis;
+
+    // Minutes of the RPM list skipped at the start
+    private transient double startOffset;
+
+    // Position in the RPM list written to the checkpoint file, null if there is none
+    private transient ScheduleCheckpoint checkpoint;
+
+    // End of the drain period in nanoseconds of System.nanoTime(), only valid while draining
+    private transient volatile long drainDeadline;
+
+    private transient volatile boolean draining;
+
+    // Free places for active threads, null if the number is not limited
+    private transient Semaphore threadSlots;
+
+    private transient OverflowPolicy overflowPolicy;
+
+    private transient long maxQueueDelay;
+
+    // Response times for the adaptive rate control
+    private transient ResponseCollector responseCollector;
+
+    // Injection accuracy
+    private transient ScheduleStats stats;
+
+    // Runtime changes of the rate by JMX or JMeter properties
+    private transient RateControl rateControl;
+
+    // Reports the statistics and watches the control properties, shared by all groups with the shared clock
+    private transient ScheduledExecutorService housekeeper;
+
+    // Periodic tasks of this thread group on the housekeeper
+    private transient List<ScheduledFuture<?>> housekeeping;
+
+    // Thread starter that also creates the threads added with addNewThread, with its mix and stock of trees
+    private transient ThreadStarter firstStarter;
+
+    // Number of threads added with addNewThread
+    private transient AtomicInteger addedThreads;
+
+    // Next thread number, shared by the thread starters and addNewThread so every thread has its own
+    private transient AtomicInteger threadNumbers = new AtomicInteger();
+
+    // Settings of every thread, resolved once at start
+    private transient boolean onErrorStopTest;
+
+    private transient boolean onErrorStopTestNow;
+
+    private transient boolean onErrorStopThread;
+
+    private transient boolean onErrorStartNextLoop;
+
+    private transient String threadNamePrefix;
+
+    /**
+     * No-arg constructor.
+     */
+    public RpmThreadGroup() {
+        // Non args constructor.
+    }
+
+    /**
+     * The test plan is sent to remote JMeter servers serialized, the run state is not part of it and starts
+     * empty like after the constructor.
+     *
+     * @return This thread group.
+     */
+    private Object readResolve() {
+        allThreads = new ThreadRegistry();
+        threadStarters = new Thread[0];
+        sharedStarters = new ThreadStarter[0];
+        startersDone = new CountDownLatch(0);
+        threadNumbers = new AtomicInteger();
+        return this;
+    }
+
+    /**
+     * Starts Threads using ramp up. With more than one thread starter every starter fires
+     * every shardCount-th request, starting with request shard. Runs on an own thread or, with the
+     * shared clock, on an executor the {@link SharedClock} hands the due fire times to.
+     */
+    class ThreadStarter implements Runnable {
+
+        private final int shard;
+        private final int shardCount;
+        private final int groupCount;
+        private final ListenerNotifier notifier;
+        private final ListedHashTree threadGroupTree;
+        private final StandardJMeterEngine engine;
+        private final JMeterContext context;
+        // variables handed over to every new thread
+        private final JMeterVariables startVariables = new JMeterVariables();
+
+        // null without weighted mix
+        private final SamplerMix mix;
+
+        // state of the thread starter, only used by one thread at a time
+        private LiveArrivals arrivals;
+        private ReplayArrivals replay;
+        private boolean closed;
+
+        // also used by addNewThread, guarded by this
+        private ClonedTreeSupply treeSupply;
+
+        // only with the shared clock
+        private ThreadPoolExecutor executor;
+        private volatile SharedClock.Entry clockEntry;
+
+        public ThreadStarter(int shard, int shardCount, int groupCount, ListenerNotifier notifier,
+                             ListedHashTree threadGroupTree, StandardJMeterEngine engine) {
+            super();
+            this.shard = shard;
+            this.shardCount = shardCount;
+            this.groupCount = groupCount;
+            this.notifier = notifier;
+            this.threadGroupTree = threadGroupTree;
+            this.engine = engine;
+            // Store context from Root Thread to pass it to created threads
+            this.context = JMeterContextService.getContext();
+            if (isWeightedMix()) {
+                mix = SamplerMix.create(threadGroupTree, getMixWeights());
+                if (shard == 0) {
+                    log.info(getName() + " fires a weighted mix of " + mix);
+                }
+            } else {
+                mix = null;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                // inside the try, so a configuration error still counts down startersDone
+                open();
+                while (running && arrivals.hasNext()) {
+                    // requests that are already due are fired without waiting,
+                    // so more than one request per millisecond is possible
+                    long deadline = startTime + arrivals.nextLong();
+                    if (!DeadlineWaiter.awaitDeadline(deadline) || !running) {
+                        break;
+                    }
+                    fire(deadline);
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Fire the requests with the {@link SharedClock} instead of an own thread waiting for them.
+         */
+        void startShared() {
+            executor = new ThreadPoolExecutor(1, 1, WORKER_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), r -> {
+                        Thread starter = new Thread(r, starterName(shard, shardCount));
+                        starter.setDaemon(true);
+                        return starter;
+                    });
+            // idle thread starters need no thread
+            executor.allowCoreThreadTimeOut(true);
+            executor.execute(() -> {
+                boolean scheduled = false;
+                try {
+                    open();
+                    scheduled = scheduleNext();
+                } finally {
+                    if (!scheduled) {
+                        close();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Run by the executor when the shared clock reached a deadline. Wakeups of the rate control fire no
+         * request and only register the next fire time.
+         */
+        private void fireShared(long deadline) {
+            boolean scheduled = false;
+            try {
+                if (running) {
+                    fire(deadline);
+                    scheduled = scheduleNext();
+                }
+            } finally {
+                if (!scheduled) {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Fire the requests that are already due and register the next fire time with the shared clock.
+         *
+         * @return false if there are no more requests.
+         */
+        private boolean scheduleNext() {
+            while (running && arrivals.hasNext()) {
+                long deadline = startTime + arrivals.nextLong();
+                if (deadline - System.nanoTime() > 0) {
+                    clockEntry = SharedClock.get().schedule(deadline, () -> onClock(deadline));
+                    return true;
+                }
+                fire(deadline);
+            }
+            return false;
+        }
+
+        /**
+         * Run by the clock thread at a deadline. Wake-ups of the rate control while the rate does not change are
+         * handled here, so the executor of an idle thread starter is not woken every tick. Everything else is
+         * handed over: the fire times are calculated on the executor.
+         */
+        private void onClock(long deadline) {
+            if (running && arrivals.isWakeup()) {
+                long next = arrivals.nextTick();
+                if (next >= 0) {
+                    long wakeup = startTime + next;
+                    clockEntry = SharedClock.get().schedule(wakeup, () -> onClock(wakeup));
+                    return;
+                }
+            }
+            handOver(() -> fireShared(deadline));
+        }
+
+        private void handOver(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                log.debug("Thread starter of " + getName() + " is already closed");
+            }
+        }
+
+        /**
+         * Stop a thread starter that fires with the shared clock, without waiting for its next fire time.
+         */
+        void cancelShared() {
+            SharedClock.Entry entry = clockEntry;
+            if (entry != null && SharedClock.get().cancel(entry)) {
+                handOver(this::close);
+            }
+        }
+
+        /**
+         * Create the fire times and the supply of trees.
+         */
+        private void open() {
+            // Copy in ThreadStarter thread context from calling Thread
+            JMeterContextService.getContext().setVariables(this.context.getVariables());
+
+            if (!getReplayFile().isEmpty()) {
+                replay = new ReplayArrivals(getReplayFile(), getReplaySpeed(), getNodeIndex(), getNodeCount(),
+                        REPLAY_READ_AHEAD, getName());
+            }
+            arrivals = new LiveArrivals(replay != null ? replay : createArrivals(shard, shardCount),
+                    rateControl, segments -> createArrivals(segments, shard, shardCount),
+                    TimeUnit.MILLISECONDS.toNanos(CONTROL_TICK), 1d / shardCount,
+                    replay != null || isAdaptive() ? () -> Double.NaN : RpmThreadGroup.this::remainingMinutes);
+            String supplyName = shardCount == 1 ? getName() : getName() + "-" + shard;
+            ClonedTreeSupply supply = mix != null
+                    ? new ClonedTreeSupply(mix.getVariants(), mix.stockCapacities(CLONE_STOCK), supplyName)
+                    : new ClonedTreeSupply(threadGroupTree, CLONE_STOCK, supplyName);
+            treeSupplies[shard] = supply;
+            supply.start();
+            synchronized (this) {
+                treeSupply = supply;
+            }
+        }
+
+        /**
+         * Fire one request.
+         *
+         * @param deadline Planned fire time in nanoseconds of {@link System#nanoTime()}.
+         */
+        private void fire(long deadline) {
+            if (arrivals.isWakeup()) {
+                return;
+            }
+            if (!acquireThreadSlot(engine)) {
+                return;
+            }
+            try {
+                int threadNum = threadNumbers.getAndIncrement();
+                startThread(newThread(deadline, threadNum, threadName(threadNum), replay));
+            } catch (Throwable e) {
+                // the slot is only given back by threadFinished of a started thread
+                releaseThreadSlot();
+                throw e;
+            }
+            stats.requestFired(deadline, System.nanoTime());
+        }
+
+        /**
+         * Create the thread of one request: the tree of the next variant of the mix from the stock, and the
+         * start fields. Threads added with addNewThread are created here as well, so the variants are chosen
+         * by one mix and come from one list.
+         *
+         * @param deadline   Planned start in nanoseconds of {@link System#nanoTime()}.
+         * @param threadNum  Number of the thread.
+         * @param threadName Name of the thread.
+         * @param replay     Replay whose current line is handed to the thread, null if there is none.
+         * @return The thread, not started yet.
+         */
+        synchronized JMeterThread newThread(long deadline, int threadNum, String threadName,
+                                            ReplayArrivals replay) {
+            int variant = mix == null ? 0 : mix.next();
+            ListedHashTree tree = treeSupply != null ? treeSupply.take(variant)
+                    // a thread added before the thread starter opened
+                    : ClonedTreeSupply.cloneTree(mix == null ? threadGroupTree : mix.getVariants()[variant]);
+            return prepareThread(tree, deadline, threadNum, threadName, replay);
+        }
+
+        /**
+         * Create the JMeter thread of one request for a tree and add the start fields. Also called by the
+         * benchmark of the allocations per request.
+         *
+         * @param tree       Cloned tree, not used by any other thread.
+         * @param deadline   Planned start in nanoseconds of {@link System#nanoTime()}.
+         * @param threadNum  Number of the thread.
+         * @param threadName Name of the thread.
+         * @param replay     Replay whose current line is handed to the thread, null if there is none.
+         * @return The thread, not started yet.
+         */
+        JMeterThread prepareThread(ListedHashTree tree, long deadline, int threadNum, String threadName,
+                                   ReplayArrivals replay) {
+            JMeterThread jmThread = makeThread(notifier, tree, engine, threadNum, threadName, context);
+            putStartFields(jmThread, deadline, replay);
+            return jmThread;
+        }
+
+        /**
+         * Stop the supply of trees and the replay. Called once when there are no more requests.
+         */
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                // a stopped test did not read the files of the profile to the end
+                LoadProfile.close(arrivals);
+                if (treeSupply != null) {
+                    treeSupply.stop();
+                }
+                if (replay != null) {
+                    replay.close();
+                }
+                if (executor != null) {
+                    executor.shutdown();
+                }
+            } finally {
+                startersDone.countDown();
+            }
+        }
+
+        /**
+         * Add the intended start time and with a replay the fields of the replayed line to the variables of the
+         * new thread.
+         */
+        private void putStartFields(JMeterThread jmThread, long deadline, ReplayArrivals replay) {
+            JMeterContext starterContext = JMeterContextService.getContext();
+            JMeterVariables variables = starterContext.getVariables();
+            startVariables.put(INTENDED_START_VARIABLE,
+                    Long.toString(startEpochMillis + TimeUnit.NANOSECONDS.toMillis(deadline - startTime)));
+            if (replay != null) {
+                replay.putFields(startVariables);
+            }
+            // the initial context is only copied, so the context of this thread can be used to hand over
+            starterContext.setVariables(startVariables);
+            jmThread.setInitialContext(starterContext);
+            starterContext.setVariables(variables);
+        }
+    }
+
+    @Override
+    public void start(int groupCount, ListenerNotifier notifier, ListedHashTree threadGroupTree,
+                      StandardJMeterEngine engine) {
+        running = true;
+        stats = new ScheduleStats(this, groupCount);
+        stats.registerMBean();
+        rateControl = new RateControl(getName(), groupCount);
+        rateControl.registerMBean();
+        housekeeper = SHARED_CLOCK ? SharedClock.get().getHousekeeper()
+                : Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread reporter = new Thread(r, getName() + "-Housekeeper");
+                    reporter.setDaemon(true);
+                    return reporter;
+                });
+        housekeeping = new CopyOnWriteArrayList<>();
+        if (STATS_INTERVAL > 0) {
+            housekeeping.add(housekeeper.scheduleAtFixedRate(stats::report, STATS_INTERVAL, STATS_INTERVAL,
+                    TimeUnit.SECONDS));
+        }
+        if (CONTROL_TICK > 0) {
+            housekeeping.add(housekeeper.scheduleWithFixedDelay(rateControl::watchProperties, CONTROL_TICK,
+                    CONTROL_TICK, TimeUnit.MILLISECONDS));
+        }
+        int maxThreads = getMaxThreads();
+        threadSlots = maxThreads > 0 ? new Semaphore(maxThreads) : null;
+        overflowPolicy = getOverflowPolicy();
+        maxQueueDelay = getMaxQueueDelay();
+        useVirtualThreads = false;
+        if (isVirtualThreads()) {
+            useVirtualThreads = VirtualThreads.isSupported();
+            if (!useVirtualThreads) {
+                log.warn("Virtual threads are not supported by this JVM (Java 21+ needed), "
+                                 + getName() + " uses platform threads");
+            }
+        }
+        if (isReuseThreads() && !useVirtualThreads) {
+            workerPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, WORKER_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                    new SynchronousQueue<Runnable>(), new WorkerThreadFactory(getName()));
+        }
+        arrivalSeed = resolveRandomSeed();
+        if (isCorrectStartDelay()) {
+            // before the thread starters and mixes copy the tree, shared by all threads
+            threadGroupTree.add(threadGroupTree.getArray()[0], new IntendedStartCorrector());
+        }
+        responseCollector = null;
+        if (isAdaptive() && getReplayFile().isEmpty()) {
+            responseCollector = new ResponseCollector();
+            // child of the thread group, so it gets the samples of all samplers
+            threadGroupTree.add(threadGroupTree.getArray()[0], responseCollector);
+        }
+        addedThreads = new AtomicInteger();
+        threadNumbers = new AtomicInteger();
+        resolveThreadSettings(groupCount);
+        if (getNodeCount() > 1) {
+            log.info(getName() + " fires every " + getNodeCount() + ". request starting with request "
+                             + (getNodeIndex() + 1));
+        }
+        startOffset = resolveStartOffset();
+        int starters = getStarterThreads();
+        if (starters > 1 && (isAdaptive() || !getReplayFile().isEmpty())) {
+            log.warn("The adaptive rate and replays can only be fired by one thread starter, " + getName()
+                             + " uses one instead of " + starters);
+            starters = 1;
+        }
+        treeSupplies = new ClonedTreeSupply[starters];
+        startersDone = new CountDownLatch(starters);
+        ThreadStarter[] starterTasks = new ThreadStarter[starters];
+        for (int i = 0; i < starters; i++) {
+            starterTasks[i] = new ThreadStarter(i, starters, groupCount, notifier, threadGroupTree, engine);
+        }
+        firstStarter = starterTasks[0];
+        // all thread starters share the same start time
+        startTime = System.nanoTime();
+        startEpochMillis = System.currentTimeMillis();
+        checkpoint = null;
+        if (!getCheckpointFile().isEmpty() && !isAdaptive() && getReplayFile().isEmpty()) {
+            checkpoint = new ScheduleCheckpoint(getCheckpointFile(), getName(), LoadProfile.parse(getRPMlist()),
+                    startOffset, startTime);
+            if (CHECKPOINT_INTERVAL > 0) {
+                housekeeping.add(housekeeper.scheduleAtFixedRate(checkpoint::write, CHECKPOINT_INTERVAL,
+                        CHECKPOINT_INTERVAL, TimeUnit.SECONDS));
+            }
+        }
+        if (SHARED_CLOCK) {
+            threadStarters = new Thread[0];
+            sharedStarters = starterTasks;
+            for (ThreadStarter starter : starterTasks) {
+                starter.startShared();
+            }
+            return;
+        }
+        sharedStarters = new ThreadStarter[0];
+        threadStarters = new Thread[starters];
+        for (int i = 0; i < starters; i++) {
+            threadStarters[i] = new Thread(starterTasks[i], starterName(i, starters));
+            threadStarters[i].setDaemon(true);
+        }
+        for (Thread starter : threadStarters) {
+            starter.start();
+        }
+    }
+
+    /**
+     * Minutes of the RPM list to skip: the start offset if set, else the elapsed time of the checkpoint file
+     * of a test that did not finish.
+     *
+     * @return Minutes to skip, 0 to start from the beginning.
+     */
+    private double resolveStartOffset() {
+        double offset = getStartOffset();
+        if (isAdaptive() || !getReplayFile().isEmpty()) {
+            if (offset > 0) {
+                log.warn("The adaptive rate and replays can not start from an offset, " + getName()
+                                 + " starts from the beginning");
+            }
+            return 0;
+        }
+        if (offset <= 0 && !getCheckpointFile().isEmpty()) {
+            offset = ScheduleCheckpoint.readResumeOffset(getCheckpointFile(), getName(),
+                    LoadProfile.parse(getRPMlist()));
+            if (offset > 0) {
+                log.info(getName() + " resumes the test that did not end from checkpoint file "
+                                 + getCheckpointFile());
+            }
+        }
+        if (offset > 0) {
+            log.info(getName() + " starts " + offset + " minutes into the RPM list");
+        }
+        return offset;
+    }
+
+    private String starterName(int shard, int shardCount) {
+        return shardCount == 1 ? getName() + "-ThreadStarter" : getName() + "-ThreadStarter-" + shard;
+    }
+
+
+
+    /**
+     * Create the fire times of a thread starter of this load generator, from the RPM list or the adaptive
+     * rate control.
+     *
+     * @param shard      Index of the thread starter.
+     * @param shardCount Number of thread starters, each fires every shardCount-th request.
+     * @return Fire times in nanoseconds after the start of the test.
+     */
+    private PrimitiveIterator.OfLong createArrivals(int shard, int shardCount) {
+        if (isAdaptive()) {
+            return distribute(new AdaptiveArrivals(getName(), responseCollector, stats,
+                    getPositiveDouble(ADAPTIVE_START_RPM), getPositiveDouble(ADAPTIVE_STEP_RPM),
+                    getPositiveDouble(ADAPTIVE_STEP_DURATION),
+                    getOptionalDouble(ADAPTIVE_MAX_RPM, Double.MAX_VALUE),
+                    getOptionalDouble(ADAPTIVE_PERCENTILE, 95),
+                    (long) getOptionalDouble(ADAPTIVE_MAX_RESPONSE_TIME, Long.MAX_VALUE),
+                    getOptionalDouble(ADAPTIVE_MAX_ERROR_RATE, 100)));
+        }
+        LoadProfile profile = LoadProfile.parse(getRPMlist());
+        if (startOffset > 0) {
+            ResumedProfile resumed = new ResumedProfile(profile, startOffset);
+            return createArrivals(resumed, resumed.getRequestsBefore(), shard, shardCount);
+        }
+        return createArrivals(profile, 0, shard, shardCount);
+    }
+
+    /**
+     * @return Minutes of the RPM list after the start offset.
+     */
+    private double remainingMinutes() {
+        return Math.max(0, LoadProfile.duration(LoadProfile.parse(getRPMlist())) - startOffset);
+    }
+
+    /**
+     * Create the fire times of a thread starter of this load generator for segments of the RPM list.
+     *
+     * @param segments   Segments of the RPM list.
+     * @param shard      Index of the thread starter.
+     * @param shardCount Number of thread starters, each fires every shardCount-th request.
+     * @return Fire times in nanoseconds after the start of the segments.
+     */
+    private PrimitiveIterator.OfLong createArrivals(Iterable<RpmSegment> segments, int shard, int shardCount) {
+        return createArrivals(segments, 0, shard, shardCount);
+    }
+
+    /**
+     * Create the fire times of a thread starter of this load generator for the rest of a resumed RPM list.
+     *
+     * @param segments   Segments of the RPM list after the start offset.
+     * @param startCount Requests of the RPM list before the start offset, so the deterministic requests keep
+     *                   their numbers and the load generators and thread starters their share.
+     * @param shard      Index of the thread starter.
+     * @param shardCount Number of thread starters, each fires every shardCount-th request.
+     * @return Fire times in nanoseconds after the start of the segments.
+     */
+    private PrimitiveIterator.OfLong createArrivals(Iterable<RpmSegment> segments, double startCount, int shard,
+                                                    int shardCount) {
+        PrimitiveIterator.OfLong arrivals;
+        switch (getArrivalDistribution()) {
+            case POISSON:
+                arrivals = new StochasticArrivals(shareOfNode(segments), createRandom(), 1);
+                break;
+            case BURST:
+                arrivals = new StochasticArrivals(shareOfNode(segments), createRandom(), getBurstFactor());
+                break;
+            case DETERMINISTIC:
+            default:
+                // every fire time is calculated on its own, so only the requests of this thread starter are
+                // calculated: the load generators take turns first, then the thread starters
+                int nodeCount = getNodeCount();
+                return new ArrivalIterator(segments, startCount, getNodeIndex() + (long) shard * nodeCount,
+                        (long) nodeCount * shardCount);
+        }
+        // the thread starters of this load generator share its random stream, they use the same seed
+        return shardCount == 1 ? arrivals : new InterleavedArrivals(arrivals, shard, shardCount);
+    }
+
+    /**
+     * The share of this load generator of the requests per minute, for the random distributions. Every load
+     * generator draws its own random fire times with 1/node.count of the rate: independent Poisson (or burst)
+     * processes add up to one of the whole rate, while every n-th request of one Poisson process would be
+     * much more regular and lose the bursts.
+     *
+     * @param segments Segments of the RPM list of all load generators.
+     * @return Segments of this load generator.
+     */
+    private static Iterable<RpmSegment> shareOfNode(Iterable<RpmSegment> segments) {
+        int nodeCount = getNodeCount();
+        return nodeCount <= 1 ? segments : LoadProfile.scale(segments, 1d / nodeCount);
+    }
+
+    /**
+     * Take only the share of this load generator of the fire times. If the JMeter properties
+     * rpmthreadgroup.node.count and rpmthreadgroup.node.index are set, the fire times are the load of all
+     * load generators together and this one fires only every node.count-th request.
+     *
+     * @param arrivals Fire times of all load generators.
+     * @return Fire times of this load generator.
+     */
+    private PrimitiveIterator.OfLong distribute(PrimitiveIterator.OfLong arrivals) {
+        int nodeCount = getNodeCount();
+        int nodeIndex = getNodeIndex();
+        if (nodeCount <= 1) {
+            return arrivals;
+        }
+        return new InterleavedArrivals(arrivals, nodeIndex, nodeCount);
+    }
+
+    /**
+     * @return Number of load generators sharing the load, JMeter property rpmthreadgroup.node.count.
+     */
+    private static int getNodeCount() {
+        return Math.max(1, JMeterUtils.getPropDefault("rpmthreadgroup.node.count", 1));
+    }
+
+    /**
+     * @return Index of this load generator, JMeter property rpmthreadgroup.node.index.
+     */
+    private static int getNodeIndex() {
+        int nodeCount = getNodeCount();
+        int nodeIndex = nodeCount <= 1 ? 0 : JMeterUtils.getPropDefault("rpmthreadgroup.node.index", 0);
+        if (nodeIndex < 0 || nodeIndex >= nodeCount) {
+            throw new RuntimeException("Configuration error in distributed test: rpmthreadgroup.node.index "
+                                               + nodeIndex + " must be between 0 and " + (nodeCount - 1));
+        }
+        return nodeIndex;
+    }
+
+    /**
+     * Create the random numbers for the stochastic distributions.
+     *
+     * @return Random numbers with the seed of this test.
+     */
+    private SplittableRandom createRandom() {
+        // an own stream per load generator, reproducible with a configured seed
+        return new SplittableRandom(arrivalSeed + getNodeIndex());
+    }
+
+    /**
+     * The thread starters must create the same random numbers, so the seed is chosen once per test.
+     *
+     * @return The configured seed, or a random seed if none is set.
+     */
+    private long resolveRandomSeed() {
+        String seed = getRandomSeed().trim();
+        if (seed.isEmpty()) {
+            return new SplittableRandom().nextLong();
+        }
+        try {
+            return Long.parseLong(seed);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(
+                    "Configuration error in setting performance test values: Random seed is not a number: " + seed);
+        }
+    }
+
+    /**
+     * Take a place for a new active thread if their number is limited.
+     * If there is no free place the {@link OverflowPolicy} decides what happens.
+     *
+     * @param engine Engine to stop with {@link OverflowPolicy#STOP_TEST}.
+     * @return true if the request can be fired.
+     */
+    private boolean acquireThreadSlot(StandardJMeterEngine engine) {
+        if (threadSlots == null || threadSlots.tryAcquire()) {
+            return true;
+        }
+        switch (overflowPolicy) {
+            case QUEUE:
+                stats.requestQueued();
+                try {
+                    if (threadSlots.tryAcquire(maxQueueDelay, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    log.log(Priority.DEBUG, "Waiting for a free thread was interrupted");
+                    Thread.currentThread().interrupt();
+                }
+                stats.requestDropped();
+                return false;
+            case STOP_TEST:
+                log.error("Maximum number of " + getMaxThreads() + " active threads reached in " + getName()
+                                  + ", stopping test");
+                stats.requestDropped();
+                running = false;
+                engine.askThreadsToStop();
+                return false;
+            case DROP:
+            default:
+                stats.requestDropped();
+                return false;
+        }
+    }
+
+    /**
+     * Give back the place of an active thread.
+     */
+    private void releaseThreadSlot() {
+        Semaphore slots = threadSlots;
+        if (slots != null) {
+            slots.release();
+        }
+    }
+
+    /**
+     * Start a JMeter thread. Either on a new (platform or virtual) thread or on an idle worker of the pool.
+     * The pool only grows if all existing workers are still busy.
+     *
+     * @param jmThread {@link JMeterThread} to start
+     */
+    private void startThread(final JMeterThread jmThread) {
+        stats.threadCreated();
+        if (workerPool != null) {
+            try {
+                workerPool.execute(() -> runPooled(jmThread));
+            } catch (RejectedExecutionException e) {
+                log.debug("Worker pool is shut down, not starting " + jmThread.getThreadName());
+                releaseThreadSlot();
+            }
+        } else if (useVirtualThreads) {
+            // virtual threads are always daemon threads
+            Thread newThread = VirtualThreads.newThread(jmThread, jmThread.getThreadName());
+            startRegistered(jmThread, newThread);
+        } else {
+            Thread newThread = new Thread(jmThread, jmThread.getThreadName());
+            newThread.setDaemon(false); // ThreadStarter is daemon, but we don't want sampler threads to be so too
+            startRegistered(jmThread, newThread);
+        }
+    }
+
+    /**
+     * Register a thread and start it. If it can not be started, e.g. because the JVM can not create more
+     * native threads, it is removed again, so waitThreadsStopped does not wait for it. The caller gives back
+     * the place of the thread.
+     *
+     * @param jmThread  {@link JMeterThread} to start
+     * @param newThread Thread running it.
+     */
+    private void startRegistered(JMeterThread jmThread, Thread newThread) {
+        registerStartedThread(jmThread, newThread);
+        try {
+            newThread.start();
+        } catch (Throwable e) {
+            allThreads.unregister(jmThread);
+            throw e;
+        }
+    }
+
+    /**
+     * Run a JMeter thread on the current pool worker.
+     *
+     * @param jmThread {@link JMeterThread} to run
+     */
+    private void runPooled(JMeterThread jmThread) {
+        Thread worker = Thread.currentThread();
+        String workerName = worker.getName();
+        worker.setName(jmThread.getThreadName());
+        registerStartedThread(jmThread, worker);
+        if (!running) {
+            // test was stopped between scheduling and registering
+            jmThread.stop();
+        }
+        try {
+            jmThread.run();
+        } finally {
+            // don't let an interrupt meant for this sampler hit the next one
+            Thread.interrupted();
+            worker.setName(workerName);
+        }
+    }
+
+    /**
+     * Creates the non-daemon worker threads of the pool.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger workerCount = new AtomicInteger();
+        private final String groupName;
+
+        WorkerThreadFactory(String groupName) {
+            this.groupName = groupName;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread worker = new Thread(r, groupName + "-Worker-" + workerCount.incrementAndGet());
+            worker.setDaemon(false); // ThreadStarter is daemon, but we don't want sampler threads to be so too
+            return worker;
+        }
+    }
+
+    /**
+     * Sleep
+     *
+     * @param time Time in milliseconds.
+     */
+    public static void threadsleep(long time) {
+        try {
+            Thread.sleep(time);
+        } catch (InterruptedException e) {
+            log.log(Priority.DEBUG, "Thread sleep was interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get rpm list.
+     *
+     * @return the rpm list.
+     */
+    public String getRPMlist() {
+        return this.getPropertyAsString(RPM_LIST);
+    }
+
+    /**
+     * Search the maximum sustainable RPM?
+     *
+     * @return true if the adaptive rate control is used instead of the RPM list.
+     */
+    public boolean isAdaptive() {
+        return this.getPropertyAsBoolean(ADAPTIVE);
+    }
 
     /**
-     * Is test (still) running?
+     * Get a number property that may be empty.
+     *
+     * @param name         Name of the property.
+     * @param defaultValue Value if the property is empty.
+     * @return The value of the property.
      */
-    private volatile boolean running = false;
+    private double getOptionalDouble(String name, double defaultValue) {
+        String value = this.getPropertyAsString(name).trim();
+        if (value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(
+                    "Configuration error in setting performance test values: " + name + " is not a number: " + value);
+        }
+    }
 
-    // List of active threads
-    private final Map<JMeterThread, Thread> allThreads = new ConcurrentHashMap<>();
+    /**
+     * Get a required number property of the adaptive rate that must be greater than 0.
+     *
+     * @param name Name of the property.
+     * @return The value of the property.
+     */
+    private double getPositiveDouble(String name) {
+        double value = getOptionalDouble(name, 0);
+        if (!(value > 0)) {
+            throw new RuntimeException("Configuration error in adaptive rate: " + name + " must be greater than 0: "
+                                               + this.getPropertyAsString(name));
+        }
+        return value;
+    }
 
-    private transient Thread threadStarter;
+    /**
+     * Get the arrival distribution.
+     *
+     * @return How the requests are distributed over time.
+     */
+    public ArrivalDistribution getArrivalDistribution() {
+        return ArrivalDistribution.fromString(this.getPropertyAsString(ARRIVAL_DISTRIBUTION));
+    }
 
     /**
-     * No-arg constructor.
+     * Get the burst factor.
+     *
+     * @return Mean number of requests per burst, at least 1.
      */
-    public RpmThreadGroup() {
-        // Non args constructor.
+    public double getBurstFactor() {
+        return Math.max(1, this.getPropertyAsDouble(BURST_FACTOR));
     }
 
     /**
-     * Starts Threads using ramp up
+     * Get the random seed.
+     *
+     * @return Seed for the random numbers, empty for a random seed.
      */
-    class ThreadStarter implements Runnable {
+    public String getRandomSeed() {
+        return this.getPropertyAsString(RANDOM_SEED);
+    }
 
-        private final int groupCount;
-        private final ListenerNotifier notifier;
-        private final ListedHashTree threadGroupTree;
-        private final StandardJMeterEngine engine;
-        private final JMeterContext context;
+    /**
+     * Reuse idle sampler threads?
+     *
+     * @return true if sampler threads are taken from a pool.
+     */
+    public boolean isReuseThreads() {
+        return this.getPropertyAsBoolean(REUSE_THREADS);
+    }
 
-        public ThreadStarter(int groupCount, ListenerNotifier notifier, ListedHashTree threadGroupTree,
-                             StandardJMeterEngine engine) {
-            super();
-            this.groupCount = groupCount;
-            this.notifier = notifier;
-            this.threadGroupTree = threadGroupTree;
-            this.engine = engine;
-            // Store context from Root Thread to pass it to created threads
-            this.context = JMeterContextService.getContext();
+    /**
+     * Run sampler threads as virtual threads?
+     *
+     * @return true if virtual threads should be used (if supported by the JVM).
+     */
+    public boolean isVirtualThreads() {
+        return this.getPropertyAsBoolean(VIRTUAL_THREADS);
+    }
 
-        }
+    /**
+     * Get the maximum number of active threads.
+     *
+     * @return Maximum number of active threads, 0 for no limit.
+     */
+    public int getMaxThreads() {
+        return Math.max(0, this.getPropertyAsInt(MAX_THREADS));
+    }
 
-        @Override
-        public void run() {
-            // Copy in ThreadStarter thread context from calling Thread
-            JMeterContextService.getContext().setVariables(this.context.getVariables());
+    /**
+     * Get the overflow policy.
+     *
+     * @return What to do if the maximum number of active threads is reached.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return OverflowPolicy.fromString(this.getPropertyAsString(OVERFLOW_POLICY));
+    }
 
-            List<Long> waitTimesList = createWaitTimesList(getRPMlist());
+    /**
+     * Get the maximum queue delay.
+     *
+     * @return Maximum time in milliseconds a request waits for a free thread.
+     */
+    public long getMaxQueueDelay() {
+        return Math.max(0, this.getPropertyAsLong(MAX_QUEUE_DELAY));
+    }
 
-            List<Long> absoluteTimeWaitList = new ArrayList<Long>();
-            long start = getSystemTimer();
-            Long delayBefore = (long) 0;
-            int threadNum = 0;
-            for (Long delay : waitTimesList) {
-                absoluteTimeWaitList.add(start + delay + delayBefore);
-                delayBefore = delay + delayBefore;
-            }
+    /**
+     * Run a weighted mix?
+     *
+     * @return true if every request runs only one of the samplers and controllers below the thread group.
+     */
+    public boolean isWeightedMix() {
+        return this.getPropertyAsBoolean(WEIGHTED_MIX);
+    }
 
-            for (Long absoluteDelay : absoluteTimeWaitList) {
-                while (running && absoluteDelay > getSystemTimer()) {
-                    threadsleep(3);
-                }
-                JMeterThread jmThread = makeThread(groupCount, notifier, threadGroupTree, engine, threadNum, context);
+    /**
+     * Is the start delay added to the first sample of every request?
+     *
+     * @return true if the first sample is reported from the intended start time.
+     */
+    public boolean isCorrectStartDelay() {
+        return this.getPropertyAsBoolean(CORRECT_START_DELAY);
+    }
 
-                Thread newThread = new Thread(jmThread, jmThread.getThreadName());
-                newThread.setDaemon(false); // ThreadStarter is daemon, but we don't want sampler threads to be so too
-                registerStartedThread(jmThread, newThread);
-                newThread.start();
-                threadNum++;
-            }
+    /**
+     * Get the start offset.
+     *
+     * @return Minutes of the RPM list to skip at the start, 0 if not set.
+     */
+    public double getStartOffset() {
+        return Math.max(0, getOptionalDouble(START_OFFSET, 0));
+    }
 
+    /**
+     * Get the checkpoint file.
+     *
+     * @return Path of the checkpoint file, empty if no checkpoint is written.
+     */
+    public String getCheckpointFile() {
+        return this.getPropertyAsString(CHECKPOINT_FILE).trim();
+    }
 
-        }
+    /**
+     * Get the weights of the weighted mix.
+     *
+     * @return Weights in the syntax name1=weight1;name2=weight2, missing samplers and controllers have weight 1.
+     */
+    public String getMixWeights() {
+        return this.getPropertyAsString(MIX_WEIGHTS);
     }
 
-    @Override
-    public void start(int groupCount, ListenerNotifier notifier, ListedHashTree threadGroupTree,
-                      StandardJMeterEngine engine) {
-        running = true;
-        threadStarter = new Thread(new ThreadStarter(groupCount, notifier, threadGroupTree, engine),
-                getName() + "-ThreadStarter");
-        threadStarter.setDaemon(true);
-        threadStarter.start();
+    /**
+     * Get the number of thread starters.
+     *
+     * @return Number of threads firing the requests, at least 1.
+     */
+    public int getStarterThreads() {
+        return Math.max(1, this.getPropertyAsInt(STARTER_THREADS, 1));
     }
 
+    /**
+     * Get the drain period.
+     *
+     * @return Time in milliseconds the active threads may finish their requests when the test is stopped,
+     * 0 to stop them at once.
+     */
+    public long getDrainPeriod() {
+        return Math.max(0, this.getPropertyAsLong(DRAIN_PERIOD));
+    }
 
+    /**
+     * Get the file to replay.
+     *
+     * @return Path of the access log or timestamp file, empty if the RPM list is used.
+     */
+    public String getReplayFile() {
+        return this.getPropertyAsString(REPLAY_FILE).trim();
+    }
 
     /**
-     * Sleep
+     * Get the replay speed.
      *
-     * @param time Time in milliseconds.
+     * @return Time compression of the replay, 1 if not set.
      */
-    public static void threadsleep(long time) {
-        try {
-            Thread.sleep(time);
-        } catch (InterruptedException e) {
-            log.log(Priority.DEBUG, "Thread sleep was interrupted");
-            Thread.currentThread().interrupt();
-        }
+    public double getReplaySpeed() {
+        return getOptionalDouble(REPLAY_SPEED, 1);
     }
 
     /**
-     * Get rpm list.
+     * Statistics of the running or last test.
      *
-     * @return the rpm list.
+     * @return The statistics or null if the test was never started.
      */
-    public String getRPMlist() {
-        return this.getPropertyAsString(RPM_LIST);
+    ScheduleStats getScheduleStats() {
+        return stats;
+    }
+
+    /**
+     * How often the stock of cloned trees was empty when a request was fired.
+     *
+     * @return Number of trees that had to be cloned on the ThreadStarter, 0 if the test was not started.
+     */
+    public long getTreeStockMisses() {
+        long missed = 0;
+        ClonedTreeSupply[] supplies = treeSupplies;
+        if (supplies != null) {
+            for (ClonedTreeSupply supply : supplies) {
+                missed += supply == null ? 0 : supply.getMissed();
+            }
+        }
+        return missed;
     }
 
-    private ListedHashTree cloneTree(ListedHashTree tree) {
-        TreeCloner cloner = new TreeCloner(true);
-        tree.traverse(cloner);
-        return cloner.getClonedTree();
+    /**
+     * Number of cloned trees taken for requests.
+     *
+     * @return Number of trees taken, 0 if the test was not started.
+     */
+    public long getTreeStockTaken() {
+        long taken = 0;
+        ClonedTreeSupply[] supplies = treeSupplies;
+        if (supplies != null) {
+            for (ClonedTreeSupply supply : supplies) {
+                taken += supply == null ? 0 : supply.getTaken();
+            }
+        }
+        return taken;
     }
 
     /**
@@ -159,21 +1315,40 @@ public class RpmThreadGroup extends AbstractThreadGroup {
      * @param newThread    Thread
      */
     private void registerStartedThread(JMeterThread jMeterThread, Thread newThread) {
-        allThreads.put(jMeterThread, newThread);
-    }
-
-    private JMeterThread makeThread(int groupCount, ListenerNotifier notifier, ListedHashTree threadGroupTree,
-                                    StandardJMeterEngine engine, int i, JMeterContext context) {
-        boolean onErrorStopTest = getOnErrorStopTest();
-        boolean onErrorStopTestNow = getOnErrorStopTestNow();
-        boolean onErrorStopThread = getOnErrorStopThread();
-        boolean onErrorStartNextLoop = getOnErrorStartNextLoop();
-        String groupName = getName();
-        final JMeterThread jmeterThread = new JMeterThread(cloneTree(threadGroupTree), this, notifier);
-        jmeterThread.setThreadNum(i);
+        allThreads.register(jMeterThread, newThread);
+    }
+
+    /**
+     * Read the settings that are the same for every thread of the group once, so that creating a thread
+     * does not look them up in the properties again.
+     *
+     * @param groupCount Number of the thread group in the test plan.
+     */
+    void resolveThreadSettings(int groupCount) {
+        onErrorStopTest = getOnErrorStopTest();
+        onErrorStopTestNow = getOnErrorStopTestNow();
+        onErrorStopThread = getOnErrorStopThread();
+        onErrorStartNextLoop = getOnErrorStartNextLoop();
+        threadNamePrefix = getName() + " " + groupCount + "-";
+    }
+
+    /**
+     * @param threadNum Number of the thread, counted from 0.
+     * @return Name of the thread in the JMeter syntax "group name group number-thread number".
+     */
+    String threadName(int threadNum) {
+        return threadNamePrefix + (threadNum + 1);
+    }
+
+    /**
+     * Create a JMeter thread for one request. {@link #resolveThreadSettings(int)} must be called before.
+     */
+    JMeterThread makeThread(ListenerNotifier notifier, ListedHashTree tree, StandardJMeterEngine engine,
+                            int threadNum, String threadName, JMeterContext context) {
+        final JMeterThread jmeterThread = new JMeterThread(tree, this, notifier);
+        jmeterThread.setThreadNum(threadNum);
         jmeterThread.setThreadGroup(this);
         jmeterThread.setInitialContext(context);
-        final String threadName = groupName + " " + (groupCount) + "-" + (i + 1);
         jmeterThread.setThreadName(threadName);
         jmeterThread.setEngine(engine);
         jmeterThread.setOnErrorStopTest(onErrorStopTest);
@@ -197,14 +1372,12 @@ public class RpmThreadGroup extends AbstractThreadGroup {
      */
     @Override
     public boolean stopThread(String threadName, boolean now) {
-        for (Entry<JMeterThread, Thread> entry : allThreads.entrySet()) {
-            JMeterThread thrd = entry.getKey();
-            if (thrd.getThreadName().equals(threadName)) {
-                stopThread(thrd, entry.getValue(), now);
-                return true;
-            }
+        JMeterThread thrd = allThreads.getByName(threadName);
+        if (thrd == null) {
+            return false;
         }
-        return false;
+        stopThread(thrd, allThreads.getThread(thrd), now);
+        return true;
     }
 
     /**
@@ -226,11 +1399,15 @@ public class RpmThreadGroup extends AbstractThreadGroup {
     @Override
     public void threadFinished(JMeterThread thread) {
         log.debug("Ending thread " + thread.getThreadName());
-        allThreads.remove(thread);
+        if (draining) {
+            stats.drainCompleted();
+        }
+        allThreads.unregister(thread);
+        releaseThreadSlot();
     }
 
     /**
-     * For each thread, invoke:
+     * Stop firing requests. After the drain period, or at once if there is none, for each thread invoke:
      * <ul>
      * <li>{@link JMeterThread#stop()} - set stop flag</li>
      * <li>{@link JMeterThread#interrupt()} - interrupt sampler</li>
@@ -240,18 +1417,17 @@ public class RpmThreadGroup extends AbstractThreadGroup {
     @Override
     public void tellThreadsToStop() {
         running = false;
-        try {
-            threadStarter.interrupt();
-        } catch (Exception e) {
-            log.warn("Exception occured interrupting ThreadStarter");
+        interruptThreadStarters();
+        if (!startDrain(true)) {
+            stopActiveThreads(true);
         }
-        for (Entry<JMeterThread, Thread> entry : allThreads.entrySet()) {
-            stopThread(entry.getKey(), entry.getValue(), true);
+        if (workerPool != null) {
+            workerPool.shutdown();
         }
     }
 
     /**
-     * For each thread, invoke:
+     * Stop firing requests. After the drain period, or at once if there is none, for each thread invoke:
      * <ul>
      * <li>{@link JMeterThread#stop()} - set stop flag</li>
      * </ul>
@@ -259,13 +1435,79 @@ public class RpmThreadGroup extends AbstractThreadGroup {
     @Override
     public void stop() {
         running = false;
+        interruptThreadStarters();
+        if (!startDrain(false)) {
+            stopActiveThreads(false);
+        }
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
+    }
+
+    /**
+     * Let the active threads finish their requests until the drain period is over, then stop the rest.
+     * If the test is stopped at once during a drain started by a shutdown, the drain ends immediately.
+     *
+     * @param now true to interrupt the remaining threads after the drain period.
+     * @return false if there is no drain period or nothing to drain, so the threads must be stopped directly.
+     */
+    private synchronized boolean startDrain(boolean now) {
+        if (draining) {
+            if (now) {
+                stopActiveThreads(true);
+            }
+            return true;
+        }
+        long drainPeriod = getDrainPeriod();
+        ScheduledExecutorService timer = housekeeper;
+        if (drainPeriod <= 0 || timer == null || allThreads.size() == 0) {
+            return false;
+        }
+        drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainPeriod);
+        draining = true;
+        log.info(getName() + ": no more requests, " + allThreads.size() + " active threads may finish within "
+                         + drainPeriod + " ms");
         try {
-            threadStarter.interrupt();
-        } catch (Exception e) {
-            log.warn("Exception occured interrupting ThreadStarter");
+            housekeeping.add(timer.schedule(() -> stopActiveThreads(now), drainPeriod, TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            stopActiveThreads(now);
+        }
+        return true;
+    }
+
+    /**
+     * Stop all active threads and end the drain period.
+     *
+     * @param now true to interrupt the threads, false to let them finish the current sample.
+     */
+    private synchronized void stopActiveThreads(boolean now) {
+        if (draining) {
+            draining = false;
+            int remaining = allThreads.size();
+            stats.drainInterrupted(remaining);
+            log.info(getName() + ": drain period over, stopping " + remaining + " active threads");
+        }
+        if (now) {
+            for (Entry<JMeterThread, Thread> entry : allThreads.entrySet()) {
+                stopThread(entry.getKey(), entry.getValue(), true);
+            }
+        } else {
+            for (JMeterThread item : allThreads.jMeterThreads()) {
+                item.stop();
+            }
+        }
+    }
+
+    private void interruptThreadStarters() {
+        for (ThreadStarter starter : sharedStarters) {
+            starter.cancelShared();
         }
-        for (JMeterThread item : allThreads.keySet()) {
-            item.stop();
+        for (Thread starter : threadStarters) {
+            try {
+                starter.interrupt();
+            } catch (Exception e) {
+                log.warn("Exception occured interrupting ThreadStarter");
+            }
         }
     }
 
@@ -278,29 +1520,97 @@ public class RpmThreadGroup extends AbstractThreadGroup {
     }
 
     /**
+     * Verify that all threads stopped. All threads share one deadline of
+     * jmeterengine.threadstop.wait milliseconds, so the time does not grow with the number of threads.
+     *
      * @return boolean true if all threads stopped
      */
     @Override
     public boolean verifyThreadsStopped() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_TO_DIE);
+        if (draining) {
+            // the threads are only stopped at the end of the drain period
+            deadline = Math.max(deadline, drainDeadline + TimeUnit.MILLISECONDS.toNanos(WAIT_TO_DIE));
+        }
         boolean stoppedAll = true;
-        stoppedAll = verifyThreadStopped(threadStarter);
-        for (Thread t : allThreads.values()) {
-            stoppedAll = stoppedAll && verifyThreadStopped(t);
+        for (Thread starter : threadStarters) {
+            stoppedAll = verifyThreadStopped(starter, deadline) && stoppedAll;
+        }
+        try {
+            if (!startersDone.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                log.warn("Thread starters of " + getName() + " won't stop");
+                stoppedAll = false;
+            }
+        } catch (InterruptedException e) {
+            log.log(Priority.DEBUG, "verifyThreadsStopped was interrupted");
+            Thread.currentThread().interrupt();
+        }
+        if (workerPool != null) {
+            // idle pool workers stay alive, so wait for the pool instead of single threads
+            return verifyPoolStopped(deadline) && stoppedAll;
+        }
+        try {
+            if (allThreads.awaitEmpty(deadline)) {
+                return stoppedAll;
+            }
+        } catch (InterruptedException e) {
+            log.log(Priority.DEBUG, "verifyThreadsStopped was interrupted");
+            Thread.currentThread().interrupt();
+        }
+        logStragglers();
+        return false;
+    }
+
+    /**
+     * Shut down the worker pool and return true if all workers ended in time.
+     *
+     * @param deadline Deadline in nanoseconds of {@link System#nanoTime()}.
+     * @return TRUE if the pool is terminated.
+     */
+    private boolean verifyPoolStopped(long deadline) {
+        workerPool.shutdown();
+        try {
+            if (workerPool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            log.log(Priority.DEBUG, "verifyPoolStopped was interrupted");
+            Thread.currentThread().interrupt();
+        }
+        logStragglers();
+        return false;
+    }
+
+    /**
+     * Log the threads that are still active.
+     */
+    private void logStragglers() {
+        StringBuilder names = new StringBuilder();
+        int count = 0;
+        for (Thread t : allThreads.threads()) {
+            if (count < 20) {
+                names.append(count == 0 ? "" : ", ").append(t.getName());
+            }
+            count++;
         }
-        return stoppedAll;
+        log.warn(count + " threads of " + getName() + " won't exit: " + names + (count > 20 ? ", ..." : ""));
     }
 
     /**
      * Verify thread stopped and return true if stopped successfully.
      *
-     * @param thread Thread to verify.
+     * @param thread   Thread to verify.
+     * @param deadline Deadline in nanoseconds of {@link System#nanoTime()}.
      * @return TRUE if thread is stopped.
      */
-    private boolean verifyThreadStopped(Thread thread) {
+    private boolean verifyThreadStopped(Thread thread, long deadline) {
         boolean stopped = true;
         if (thread != null && thread.isAlive()) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
             try {
-                thread.join(WAIT_TO_DIE);
+                if (remaining > 0) {
+                    thread.join(remaining);
+                }
             } catch (InterruptedException e) {
                 log.log(Priority.DEBUG, "verifyThreadStopped was interrupted");
                 Thread.currentThread().interrupt();
@@ -318,9 +1628,48 @@ public class RpmThreadGroup extends AbstractThreadGroup {
      */
     @Override
     public void waitThreadsStopped() {
-        waitThreadStopped(threadStarter);
-        for (Thread thread : allThreads.values()) {
-            waitThreadStopped(thread);
+        for (Thread starter : threadStarters) {
+            waitThreadStopped(starter);
+        }
+        try {
+            // the thread starters fire as long as the test runs, they only get a deadline once it is stopped
+            while (!startersDone.await(WAIT_TO_DIE, TimeUnit.MILLISECONDS)) {
+                if (!running) {
+                    log.warn("Thread starters of " + getName() + " won't stop");
+                    break;
+                }
+                log.debug("Waiting for thread starters of " + getName() + " to stop");
+            }
+        } catch (InterruptedException e) {
+            log.log(Priority.DEBUG, "waitThreadsStopped was interrupted");
+            Thread.currentThread().interrupt();
+        }
+        if (workerPool != null) {
+            waitPoolStopped();
+            return;
+        }
+        try {
+            while (!allThreads.awaitEmpty(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_TO_DIE))) {
+                log.debug("Waiting for " + allThreads.size() + " threads of " + getName() + " to stop");
+            }
+        } catch (InterruptedException e) {
+            log.log(Priority.DEBUG, "waitThreadsStopped was interrupted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for all workers of the pool to stop. No new work is accepted after the ThreadStarter ended.
+     */
+    private void waitPoolStopped() {
+        workerPool.shutdown();
+        try {
+            while (!workerPool.awaitTermination(WAIT_TO_DIE, TimeUnit.MILLISECONDS)) {
+                log.debug("Waiting for worker pool of " + getName() + " to stop");
+            }
+        } catch (InterruptedException e) {
+            log.log(Priority.DEBUG, "waitPoolStopped was interrupted");
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -350,117 +1699,81 @@ public class RpmThreadGroup extends AbstractThreadGroup {
         return System.nanoTime() / 1000000;
     }
 
+    @Override
+    public void testStarted() {
+        // Nothing to do, the schedule starts with start()
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
     /**
-     * Create a list with waiting times for the timer thread to control the test
-     * threads.
-     *
-     * @param rpmDurationList A list of Requests Per Minute and durations in the fowwloing
-     *                        syntax:
-     *                        startRPM1,endRPM1,duration1;startRPM2,endRPM2,duration2;
-     *                        startRPM3,endRPM3,duration3; ...
-     * @return A list of waiting times in milliseconds.
+     * Log the final statistics and remove the MBeans.
      */
-    private static List<Long> createWaitTimesList(String rpmDurationList) {
-        List<Long> waitTimesList = new ArrayList<>();
-        String[] rpmDurationAll = rpmDurationList.split(";");
-        String[] oneRPMTriple;
-        for (String rpm : rpmDurationAll) {
-            oneRPMTriple = rpm.split("-");
-            if (oneRPMTriple.length < 3) {
-                throw new RuntimeException("CF026");
-            }
-            double startRPM = 0;
-            double endRPM = 0;
-            double duration = 0;
-            try {
-                startRPM = Double.valueOf(oneRPMTriple[0].trim());
-                endRPM = Double.valueOf(oneRPMTriple[1].trim());
-                duration = Double.valueOf(oneRPMTriple[2].trim());
-                if (startRPM < 0 || endRPM < 0 || duration < 0) {
-                    throw new RuntimeException(
-                            "Configuration error in setting performance test values: One or more values are negative: StartRPM: "
-                                    + startRPM + " endRPM: " + endRPM + " duration: "
-                                    + duration);
-                }
-            } catch (NumberFormatException e) {
-                throw new RuntimeException(
-                        "Configuration error in setting performance test values: One or more values are not a number: "
-                                + oneRPMTriple[0] + " " + oneRPMTriple[1] + " " + oneRPMTriple[2]);
-            }
-            waitTimesList.addAll(calculateWaitTimes(startRPM, endRPM, duration));
-        }
-        return waitTimesList;
-    }
-
-    /**
-     * Calculate all waiting times between 2 requests in a period.
-     *
-     * @param startRPM The amount of requests per minute that should be fired at the
-     *                 start of this period.
-     * @param endRPM   The amount of requests per minute that should be fired at the
-     *                 end of this period.
-     * @param duration The duration (in minutes) of this requests per minute period.
-     * @return A list of waiting times in milliseconds.
-     */
-    private static List<Long> calculateWaitTimes(double startRPM, double endRPM, double duration) {
-        List<Long> waitTimesList = new ArrayList<>();
-        double total = 0;
-        if (startRPM < endRPM) {
-            // currentRPM is variable over the time
-            double currentRPM = startRPM;
-            // calculate tangent of the tangle
-            double tana = (endRPM - startRPM) / duration;
-            while (currentRPM <= endRPM) {
-                // calculate a specific wait time until the next request should
-                // be send
-                double waitTime = Math.sqrt((2 / tana) + ((currentRPM / tana) * (currentRPM / tana)))
-                                          - currentRPM / tana;
-                // calculate next RPM
-                currentRPM = currentRPM + waitTime * tana;
-                // all wait time <= duration
-                total = total + waitTime;
-                if (total < duration) {
-                    // add wait time in milliseconds to list
-                    waitTimesList.add(Math.round(waitTime * 60 * 1000));
-                }
-            }
-        } else if (startRPM > endRPM) {
-            // currentRPM is variable over the time
-            double currentRPM = startRPM;
-            // calculate tangent of the tangle
-            double tana = (startRPM - endRPM) / duration;
-            while (currentRPM >= endRPM && total < duration) {
-                // calculate a specific wait time until the next request should
-                // be send
-                double waitTime = -Math.sqrt((-2 / tana) + ((currentRPM / tana) * (currentRPM / tana)))
-                                          + currentRPM / tana;
-                // calculate next RPM
-                currentRPM = currentRPM - waitTime * tana;
-                // all wait time <= duration
-                total = total + waitTime;
-                if (Double.isNaN(waitTime) || total > duration) {
-                    break;
-                } else {
-                    // add wait time in milliseconds to list
-                    waitTimesList.add(Math.round(waitTime * 60 * 1000));
+    @Override
+    public void testEnded() {
+        running = false;
+        if (housekeeper != null) {
+            if (SHARED_CLOCK) {
+                // the shared housekeeper runs on, only the tasks of this thread group end
+                for (ScheduledFuture<?> task : housekeeping) {
+                    task.cancel(false);
                 }
+            } else {
+                housekeeper.shutdownNow();
             }
-        } else {
-            // startRPM == endRPM
-            double waitTime = 1 / startRPM;
-            long requestCount = Math.round(duration / waitTime);
-            for (int count = 1; count <= requestCount; count++) {
-                waitTimesList.add(Math.round(waitTime * 60 * 1000));
-            }
+            housekeeper = null;
+        }
+        if (checkpoint != null) {
+            // deleted if the RPM list is finished, marked as ended if the test was stopped
+            checkpoint.end();
+            checkpoint = null;
+        }
+        if (stats != null) {
+            stats.report();
+            stats.unregisterMBean();
+        }
+        if (rateControl != null) {
+            rateControl.unregisterMBean();
         }
-        return waitTimesList;
     }
 
     @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+
     /**
-     * Add a new JMeterThread to this ThreadGroup for engine
+     * Add a new JMeterThread to this ThreadGroup for engine. It runs the thread group tree once like a
+     * scheduled request, but at once (after the delay) and in addition to the RPM list. The thread is created
+     * by the first thread starter like its own requests: with the next variant of its weighted mix, a tree
+     * from its stock, so a burst of added threads starts without cloning, and the intended start time.
+     *
+     * @param delay  Delay in milliseconds before the thread runs the tree.
+     * @param engine Engine of the test.
+     * @return The started thread, null if the test is not running or there is no free place for an active
+     * thread (see {@link OverflowPolicy}).
      */
+    @Override
     public JMeterThread addNewThread(int delay, StandardJMeterEngine engine) {
-        return null;
+        ThreadStarter starter = firstStarter;
+        if (!running || starter == null || !acquireThreadSlot(engine)) {
+            return null;
+        }
+        JMeterThread jmThread;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+            jmThread = starter.newThread(deadline, threadNumbers.getAndIncrement(),
+                    threadNamePrefix + "added-" + addedThreads.incrementAndGet(), null);
+            jmThread.setInitialDelay(delay);
+            startThread(jmThread);
+        } catch (Throwable e) {
+            releaseThreadSlot();
+            throw e;
+        }
+        log.debug("Added thread " + jmThread.getThreadName() + " with a delay of " + delay + " ms");
+        return jmThread;
     }
 }
@@ -7,9 +7,15 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 
 import javax.swing.BorderFactory;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 import org.apache.jmeter.control.LoopController;
 import org.apache.jmeter.control.gui.LoopControlPanel;
@@ -21,15 +27,46 @@ import org.apache.jmeter.threads.gui.AbstractThreadGroupGui;
 /**
  * JMeter Gui class.
  * Define labels and give explanations to properties.
- * There is only one property to set: "RPM list".
+ * The main property to set is the "RPM list", all other properties are optional.
  */
 public class RpmThreadGroupGui extends AbstractThreadGroupGui implements ItemListener {
 
     /** serialVersionUID */
     private static final long serialVersionUID = 1L;
 
+    // milliseconds without typing before the preview is calculated
+    private static final int PREVIEW_DELAY = 300;
+
     private LoopControlPanel loopPanel;
     private JTextField rpmList;
+    private JComboBox<ArrivalDistribution> arrivalDistribution;
+    private JTextField burstFactor;
+    private JTextField randomSeed;
+    private JCheckBox weightedMix;
+    private JTextField mixWeights;
+    private JCheckBox adaptive;
+    private JTextField adaptiveStartRpm;
+    private JTextField adaptiveStepRpm;
+    private JTextField adaptiveStepDuration;
+    private JTextField adaptiveMaxRpm;
+    private JTextField adaptivePercentile;
+    private JTextField adaptiveMaxResponseTime;
+    private JTextField adaptiveMaxErrorRate;
+    private JCheckBox reuseThreads;
+    private JCheckBox virtualThreads;
+    private JTextField maxThreads;
+    private JComboBox<OverflowPolicy> overflowPolicy;
+    private JTextField maxQueueDelay;
+    private JTextField starterThreads;
+    private JTextField drainPeriod;
+    private JCheckBox correctStartDelay;
+    private JTextField replayFile;
+    private JTextField replaySpeed;
+    private JTextField previewResponseTime;
+    private JTextField startOffset;
+    private JTextField checkpointFile;
+    private ProfilePreviewPanel preview;
+    private Timer previewTimer;
 
     public RpmThreadGroupGui() {
         super();
@@ -61,7 +98,8 @@ public class RpmThreadGroupGui extends AbstractThreadGroupGui implements ItemLis
         JLabel help1a = new JLabel(
                 "Attention: You can use more than one sampler in the RPM thread group but the RPM value refers " 
                         + "to only one sampler, which means that if there are more samplers, there will be more " 
-                        + "requests in total since all samplers are always executed.");
+                        + "requests in total since all samplers are always executed. With the weighted mix every "
+                        + "request runs only one sampler or controller.");
         help1a.setForeground(Color.BLACK);
         help1a.setFont(author.getFont().deriveFont(Font.PLAIN));
 
@@ -80,12 +118,19 @@ public class RpmThreadGroupGui extends AbstractThreadGroupGui implements ItemLis
         help4.setForeground(Color.BLACK);
         help4.setFont(author.getFont().deriveFont(Font.PLAIN));
 
+        JLabel help5 = new JLabel(" e.g. (4) hold:60-10;steps:60-120-3-30;sine:600-300-1440-2880;"
+                                          + "spike:60-600-1-5-1;file:rates.csv  :  Constant, steps, sinus curve, "
+                                          + "spike and a CSV file with lines timestamp (seconds),RPM");
+        help5.setForeground(Color.BLACK);
+        help5.setFont(author.getFont().deriveFont(Font.PLAIN));
+
         rpmPropsPanel.add(author);
         rpmPropsPanel.add(help1);
         rpmPropsPanel.add(help1a);
         rpmPropsPanel.add(help2);
         rpmPropsPanel.add(help3);
         rpmPropsPanel.add(help4);
+        rpmPropsPanel.add(help5);
         JLabel rpmListLabel = new JLabel("RPM list");
         rpmPanel.add(rpmListLabel, BorderLayout.WEST);
 
@@ -96,14 +141,198 @@ public class RpmThreadGroupGui extends AbstractThreadGroupGui implements ItemLis
 
         rpmPropsPanel.add(rpmPanel);
 
+        previewResponseTime = new JTextField(5);
+        previewResponseTime.setName("Preview response time");
+        rpmPropsPanel.add(createLabeledField("Assumed response time in milliseconds (only for the needed threads "
+                                                     + "in the preview)", previewResponseTime));
+
+        preview = new ProfilePreviewPanel();
+        rpmPropsPanel.add(preview);
+
+        previewTimer = new Timer(PREVIEW_DELAY, e -> updatePreview());
+        previewTimer.setRepeats(false);
+        DocumentListener previewListener = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                previewTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                previewTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                previewTimer.restart();
+            }
+        };
+        rpmList.getDocument().addDocumentListener(previewListener);
+        previewResponseTime.getDocument().addDocumentListener(previewListener);
+
+        arrivalDistribution = new JComboBox<>(ArrivalDistribution.values());
+        arrivalDistribution.setName("Arrival distribution");
+        rpmPropsPanel.add(createLabeledField("Arrival distribution (DETERMINISTIC: exactly as RPM list, POISSON: "
+                                                     + "random waiting times, BURST: random bursts of requests)",
+                arrivalDistribution));
+
+        burstFactor = new JTextField(5);
+        burstFactor.setName("Burst factor");
+        rpmPropsPanel.add(createLabeledField("Burst factor (mean requests per burst)", burstFactor));
+
+        randomSeed = new JTextField(5);
+        randomSeed.setName("Random seed");
+        rpmPropsPanel.add(createLabeledField("Random seed (empty: different random numbers in every run)",
+                randomSeed));
+
+        weightedMix = new JCheckBox("Weighted mix: every request runs only one of the samplers and controllers "
+                                            + "directly below this thread group, the RPM list is the total load");
+        weightedMix.setName("Weighted mix");
+        rpmPropsPanel.add(weightedMix);
+
+        mixWeights = new JTextField(5);
+        mixWeights.setName("Mix weights");
+        rpmPropsPanel.add(createLabeledField("Mix weights (e.g. Login=1;Search=10, not listed: 1, 0: never)",
+                mixWeights));
+
+        startOffset = new JTextField(5);
+        startOffset.setName("Start offset");
+        rpmPropsPanel.add(createLabeledField("Start offset in minutes (skip the start of the RPM list, "
+                                                     + "e.g. to resume a long test)", startOffset));
+
+        checkpointFile = new JTextField(5);
+        checkpointFile.setName("Checkpoint file");
+        rpmPropsPanel.add(createLabeledField("Checkpoint file (position in the RPM list, a test that did not "
+                                                     + "finish resumes from it)", checkpointFile));
+
+        // ADAPTIVE RATE PROPERTIES
+        VerticalPanel adaptivePanel = new VerticalPanel();
+        adaptivePanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(),
+                "Adaptive rate (search the maximum sustainable RPM)"));
+
+        adaptive = new JCheckBox("Use adaptive rate instead of RPM list: increase the RPM step by step until a "
+                                         + "limit is exceeded, then report the maximum sustainable RPM");
+        adaptive.setName("Adaptive");
+        adaptivePanel.add(adaptive);
+
+        adaptiveStartRpm = new JTextField(5);
+        adaptiveStartRpm.setName("Adaptive start RPM");
+        adaptivePanel.add(createLabeledField("Start RPM", adaptiveStartRpm));
+
+        adaptiveStepRpm = new JTextField(5);
+        adaptiveStepRpm.setName("Adaptive step RPM");
+        adaptivePanel.add(createLabeledField("RPM increase per step", adaptiveStepRpm));
+
+        adaptiveStepDuration = new JTextField(5);
+        adaptiveStepDuration.setName("Adaptive step duration");
+        adaptivePanel.add(createLabeledField("Step duration in minutes (much longer than the response times)",
+                adaptiveStepDuration));
+
+        adaptiveMaxRpm = new JTextField(5);
+        adaptiveMaxRpm.setName("Adaptive max RPM");
+        adaptivePanel.add(createLabeledField("Max. RPM (empty: no limit)", adaptiveMaxRpm));
+
+        adaptivePercentile = new JTextField(5);
+        adaptivePercentile.setName("Adaptive percentile");
+        adaptivePanel.add(createLabeledField("Response time percentile", adaptivePercentile));
+
+        adaptiveMaxResponseTime = new JTextField(5);
+        adaptiveMaxResponseTime.setName("Adaptive max response time");
+        adaptivePanel.add(createLabeledField("Max. response time in milliseconds at the percentile (empty: no "
+                                                     + "limit)", adaptiveMaxResponseTime));
+
+        adaptiveMaxErrorRate = new JTextField(5);
+        adaptiveMaxErrorRate.setName("Adaptive max error rate");
+        adaptivePanel.add(createLabeledField("Max. errors in percent (empty: no limit)", adaptiveMaxErrorRate));
+
+        // REPLAY PROPERTIES
+        VerticalPanel replayPanel = new VerticalPanel();
+        replayPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(),
+                "Replay (fire the lines of an access log or timestamp file at their recorded times)"));
+
+        replayFile = new JTextField(5);
+        replayFile.setName("Replay file");
+        replayPanel.add(createLabeledField("Replay file (empty: use the RPM list, fields are available as "
+                                                   + "${replay_...} variables)", replayFile));
+
+        replaySpeed = new JTextField(5);
+        replaySpeed.setName("Replay speed");
+        replayPanel.add(createLabeledField("Replay speed (2: twice as fast as recorded)", replaySpeed));
+
+        // EXECUTION PROPERTIES
+        VerticalPanel executionPanel = new VerticalPanel();
+        executionPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createEtchedBorder(),
+                "Thread execution"));
+
+        reuseThreads = new JCheckBox("Reuse idle sampler threads (a new thread is only created if all "
+                                             + "existing threads are still waiting for a response)");
+        reuseThreads.setName("Reuse threads");
+        executionPanel.add(reuseThreads);
+
+        virtualThreads = new JCheckBox("Use virtual threads (Java 21+, falls back to platform threads on older "
+                                               + "JVMs, has priority over reusing threads)");
+        virtualThreads.setName("Virtual threads");
+        executionPanel.add(virtualThreads);
+
+        maxThreads = new JTextField(5);
+        maxThreads.setName("Max threads");
+        executionPanel.add(createLabeledField("Max. active threads (empty or 0: no limit)", maxThreads));
+
+        overflowPolicy = new JComboBox<>(OverflowPolicy.values());
+        overflowPolicy.setName("Overflow policy");
+        executionPanel.add(createLabeledField("If max. active threads is reached (DROP: do not send the request, "
+                                                      + "QUEUE: wait up to max. queue delay, STOP_TEST: stop the test)",
+                overflowPolicy));
+
+        maxQueueDelay = new JTextField(5);
+        maxQueueDelay.setName("Max queue delay");
+        executionPanel.add(createLabeledField("Max. queue delay in milliseconds", maxQueueDelay));
+
+        starterThreads = new JTextField(5);
+        starterThreads.setName("Starter threads");
+        executionPanel.add(createLabeledField("Thread starters (threads firing the requests, more than 1 only for "
+                                                      + "very high rates with the RPM list)", starterThreads));
+
+        drainPeriod = new JTextField(5);
+        drainPeriod.setName("Drain period");
+        executionPanel.add(createLabeledField("Drain period in milliseconds (active requests may finish when the "
+                                                      + "test is stopped, empty or 0: stop them at once)", drainPeriod));
+
+        correctStartDelay = new JCheckBox("Report the first sample of every request from its intended start time "
+                                                  + "(response times include the delay if requests start late)");
+        correctStartDelay.setName("Correct start delay");
+        executionPanel.add(correctStartDelay);
+
         VerticalPanel intgrationPanel = new VerticalPanel();
         intgrationPanel.add(rpmPropsPanel);
+        intgrationPanel.add(adaptivePanel);
+        intgrationPanel.add(replayPanel);
+        intgrationPanel.add(executionPanel);
 
         add(intgrationPanel, BorderLayout.CENTER);
         // hide Loop panel
         createControllerPanel();
     }
 
+    private void updatePreview() {
+        double responseTime;
+        try {
+            responseTime = Double.parseDouble(previewResponseTime.getText().trim());
+        } catch (NumberFormatException e) {
+            responseTime = 0;
+        }
+        preview.update(rpmList.getText(), responseTime);
+    }
+
+    private static JPanel createLabeledField(String labelText, JComponent field) {
+        JPanel panel = new JPanel(new BorderLayout(5, 0));
+        JLabel label = new JLabel(labelText);
+        label.setLabelFor(field);
+        panel.add(label, BorderLayout.WEST);
+        panel.add(field, BorderLayout.CENTER);
+        return panel;
+    }
+
     private JPanel createControllerPanel() {
         loopPanel = new LoopControlPanel(false);
         LoopController looper = (LoopController) loopPanel.createTestElement();
@@ -117,6 +346,32 @@ public class RpmThreadGroupGui extends AbstractThreadGroupGui implements ItemLis
     // Initialise the gui field values
     private void initGui() {
         rpmList.setText("10-10-1");
+        arrivalDistribution.setSelectedItem(ArrivalDistribution.DETERMINISTIC);
+        burstFactor.setText("5");
+        randomSeed.setText("");
+        weightedMix.setSelected(false);
+        mixWeights.setText("");
+        adaptive.setSelected(false);
+        adaptiveStartRpm.setText("60");
+        adaptiveStepRpm.setText("60");
+        adaptiveStepDuration.setText("5");
+        adaptiveMaxRpm.setText("");
+        adaptivePercentile.setText("95");
+        adaptiveMaxResponseTime.setText("1000");
+        adaptiveMaxErrorRate.setText("1");
+        reuseThreads.setSelected(false);
+        virtualThreads.setSelected(false);
+        maxThreads.setText("");
+        overflowPolicy.setSelectedItem(OverflowPolicy.DROP);
+        maxQueueDelay.setText("1000");
+        starterThreads.setText("1");
+        drainPeriod.setText("");
+        correctStartDelay.setSelected(false);
+        replayFile.setText("");
+        replaySpeed.setText("1");
+        previewResponseTime.setText("500");
+        startOffset.setText("");
+        checkpointFile.setText("");
         loopPanel.clearGui();
     }
 
@@ -145,6 +400,32 @@ public class RpmThreadGroupGui extends AbstractThreadGroupGui implements ItemLis
             utg.setSamplerController((LoopController) loopPanel.createTestElement());
         }
         tg.setProperty(RpmThreadGroup.RPM_LIST, rpmList.getText());
+        tg.setProperty(RpmThreadGroup.ARRIVAL_DISTRIBUTION, String.valueOf(arrivalDistribution.getSelectedItem()));
+        tg.setProperty(RpmThreadGroup.BURST_FACTOR, burstFactor.getText());
+        tg.setProperty(RpmThreadGroup.RANDOM_SEED, randomSeed.getText());
+        tg.setProperty(RpmThreadGroup.WEIGHTED_MIX, weightedMix.isSelected());
+        tg.setProperty(RpmThreadGroup.MIX_WEIGHTS, mixWeights.getText());
+        tg.setProperty(RpmThreadGroup.ADAPTIVE, adaptive.isSelected());
+        tg.setProperty(RpmThreadGroup.ADAPTIVE_START_RPM, adaptiveStartRpm.getText());
+        tg.setProperty(RpmThreadGroup.ADAPTIVE_STEP_RPM, adaptiveStepRpm.getText());
+        tg.setProperty(RpmThreadGroup.ADAPTIVE_STEP_DURATION, adaptiveStepDuration.getText());
+        tg.setProperty(RpmThreadGroup.ADAPTIVE_MAX_RPM, adaptiveMaxRpm.getText());
+        tg.setProperty(RpmThreadGroup.ADAPTIVE_PERCENTILE, adaptivePercentile.getText());
+        tg.setProperty(RpmThreadGroup.ADAPTIVE_MAX_RESPONSE_TIME, adaptiveMaxResponseTime.getText());
+        tg.setProperty(RpmThreadGroup.ADAPTIVE_MAX_ERROR_RATE, adaptiveMaxErrorRate.getText());
+        tg.setProperty(RpmThreadGroup.REUSE_THREADS, reuseThreads.isSelected());
+        tg.setProperty(RpmThreadGroup.VIRTUAL_THREADS, virtualThreads.isSelected());
+        tg.setProperty(RpmThreadGroup.MAX_THREADS, maxThreads.getText());
+        tg.setProperty(RpmThreadGroup.OVERFLOW_POLICY, String.valueOf(overflowPolicy.getSelectedItem()));
+        tg.setProperty(RpmThreadGroup.MAX_QUEUE_DELAY, maxQueueDelay.getText());
+        tg.setProperty(RpmThreadGroup.STARTER_THREADS, starterThreads.getText());
+        tg.setProperty(RpmThreadGroup.DRAIN_PERIOD, drainPeriod.getText());
+        tg.setProperty(RpmThreadGroup.CORRECT_START_DELAY, correctStartDelay.isSelected());
+        tg.setProperty(RpmThreadGroup.REPLAY_FILE, replayFile.getText());
+        tg.setProperty(RpmThreadGroup.REPLAY_SPEED, replaySpeed.getText());
+        tg.setProperty(RpmThreadGroup.PREVIEW_RESPONSE_TIME, previewResponseTime.getText());
+        tg.setProperty(RpmThreadGroup.START_OFFSET, startOffset.getText());
+        tg.setProperty(RpmThreadGroup.CHECKPOINT_FILE, checkpointFile.getText());
     }
 
     @Override
@@ -157,6 +438,34 @@ public class RpmThreadGroupGui extends AbstractThreadGroupGui implements ItemLis
 
 
         rpmList.setText(tg.getPropertyAsString(RpmThreadGroup.RPM_LIST));
+        arrivalDistribution.setSelectedItem(
+                ArrivalDistribution.fromString(tg.getPropertyAsString(RpmThreadGroup.ARRIVAL_DISTRIBUTION)));
+        burstFactor.setText(tg.getPropertyAsString(RpmThreadGroup.BURST_FACTOR));
+        randomSeed.setText(tg.getPropertyAsString(RpmThreadGroup.RANDOM_SEED));
+        weightedMix.setSelected(tg.getPropertyAsBoolean(RpmThreadGroup.WEIGHTED_MIX));
+        mixWeights.setText(tg.getPropertyAsString(RpmThreadGroup.MIX_WEIGHTS));
+        adaptive.setSelected(tg.getPropertyAsBoolean(RpmThreadGroup.ADAPTIVE));
+        adaptiveStartRpm.setText(tg.getPropertyAsString(RpmThreadGroup.ADAPTIVE_START_RPM));
+        adaptiveStepRpm.setText(tg.getPropertyAsString(RpmThreadGroup.ADAPTIVE_STEP_RPM));
+        adaptiveStepDuration.setText(tg.getPropertyAsString(RpmThreadGroup.ADAPTIVE_STEP_DURATION));
+        adaptiveMaxRpm.setText(tg.getPropertyAsString(RpmThreadGroup.ADAPTIVE_MAX_RPM));
+        adaptivePercentile.setText(tg.getPropertyAsString(RpmThreadGroup.ADAPTIVE_PERCENTILE));
+        adaptiveMaxResponseTime.setText(tg.getPropertyAsString(RpmThreadGroup.ADAPTIVE_MAX_RESPONSE_TIME));
+        adaptiveMaxErrorRate.setText(tg.getPropertyAsString(RpmThreadGroup.ADAPTIVE_MAX_ERROR_RATE));
+        reuseThreads.setSelected(tg.getPropertyAsBoolean(RpmThreadGroup.REUSE_THREADS));
+        virtualThreads.setSelected(tg.getPropertyAsBoolean(RpmThreadGroup.VIRTUAL_THREADS));
+        maxThreads.setText(tg.getPropertyAsString(RpmThreadGroup.MAX_THREADS));
+        overflowPolicy.setSelectedItem(
+                OverflowPolicy.fromString(tg.getPropertyAsString(RpmThreadGroup.OVERFLOW_POLICY)));
+        maxQueueDelay.setText(tg.getPropertyAsString(RpmThreadGroup.MAX_QUEUE_DELAY));
+        starterThreads.setText(tg.getPropertyAsString(RpmThreadGroup.STARTER_THREADS));
+        drainPeriod.setText(tg.getPropertyAsString(RpmThreadGroup.DRAIN_PERIOD));
+        correctStartDelay.setSelected(tg.getPropertyAsBoolean(RpmThreadGroup.CORRECT_START_DELAY));
+        replayFile.setText(tg.getPropertyAsString(RpmThreadGroup.REPLAY_FILE));
+        replaySpeed.setText(tg.getPropertyAsString(RpmThreadGroup.REPLAY_SPEED));
+        previewResponseTime.setText(tg.getPropertyAsString(RpmThreadGroup.PREVIEW_RESPONSE_TIME));
+        startOffset.setText(tg.getPropertyAsString(RpmThreadGroup.START_OFFSET));
+        checkpointFile.setText(tg.getPropertyAsString(RpmThreadGroup.CHECKPOINT_FILE));
     }
 
     @Override
@@ -0,0 +1,173 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jmeter.control.Controller;
+import org.apache.jmeter.samplers.Sampler;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+
+/**
+ * Weighted mix of the samplers and controllers directly below a thread group: every request runs only one
+ * of them, so the RPM list is the total load of the thread group. For every sampler or controller there is
+ * a variant of the thread group tree without the other samplers and controllers; all other elements
+ * (config elements, timers, listeners, ...) are part of every variant.
+ * <p>
+ * The variants are chosen with a smooth weighted round robin, so the mix is exact after a few requests
+ * and the requests of one variant are spread evenly. Not thread-safe, every thread starter has its own mix.
+ */
+final class SamplerMix {
+
+    private final ListedHashTree[] variants;
+    private final String[] names;
+    private final double[] weights;
+    private final double totalWeight;
+    private final double[] current;
+
+    private SamplerMix(ListedHashTree[] variants, String[] names, double[] weights) {
+        this.variants = variants;
+        this.names = names;
+        this.weights = weights;
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        this.totalWeight = total;
+        this.current = new double[weights.length];
+    }
+
+    /**
+     * Split a thread group tree into weighted variants.
+     *
+     * @param tree       Tree of the thread group.
+     * @param weightList Weights in the syntax name1=weight1;name2=weight2, samplers and controllers not in the
+     *                   list have the weight 1, weight 0 excludes them.
+     * @return The mix.
+     */
+    static SamplerMix create(ListedHashTree tree, String weightList) {
+        Map<String, Double> configured = parseWeights(weightList);
+        Object group = tree.getArray()[0];
+        HashTree groupTree = tree.getTree(group);
+        List<Object> candidates = new ArrayList<>();
+        for (Object child : groupTree.list()) {
+            if (child instanceof Sampler || child instanceof Controller) {
+                candidates.add(child);
+            }
+        }
+        List<ListedHashTree> variants = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (Object candidate : candidates) {
+            String name = ((TestElement) candidate).getName();
+            Double weight = configured.remove(name);
+            if (weight == null) {
+                weight = 1d;
+            }
+            if (weight <= 0) {
+                continue;
+            }
+            ListedHashTree variant = new ListedHashTree(group);
+            for (Object child : groupTree.list()) {
+                if (child == candidate || !candidates.contains(child)) {
+                    variant.getTree(group).set(child, groupTree.getTree(child));
+                }
+            }
+            variants.add(variant);
+            names.add(name);
+            weights.add(weight);
+        }
+        if (!configured.isEmpty()) {
+            throw new RuntimeException("Configuration error in weighted mix: no sampler or controller named "
+                                               + configured.keySet() + " directly below the thread group");
+        }
+        if (variants.isEmpty()) {
+            throw new RuntimeException("Configuration error in weighted mix: no sampler or controller with a "
+                                               + "weight larger than 0 directly below the thread group");
+        }
+        double[] weightArray = new double[weights.size()];
+        for (int i = 0; i < weightArray.length; i++) {
+            weightArray[i] = weights.get(i);
+        }
+        return new SamplerMix(variants.toArray(new ListedHashTree[0]), names.toArray(new String[0]),
+                weightArray);
+    }
+
+    private static Map<String, Double> parseWeights(String weightList) {
+        Map<String, Double> weights = new HashMap<>();
+        for (String entry : weightList.split(";")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int separator = entry.lastIndexOf('=');
+            if (separator < 0) {
+                throw new RuntimeException("Configuration error in weighted mix: name=weight expected: " + entry);
+            }
+            String value = entry.substring(separator + 1).trim();
+            try {
+                double weight = Double.parseDouble(value);
+                if (weight < 0) {
+                    throw new NumberFormatException();
+                }
+                weights.put(entry.substring(0, separator).trim(), weight);
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Configuration error in weighted mix: weight is not a positive number: "
+                                                   + entry);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Choose the variant of the next request.
+     *
+     * @return Index of the variant.
+     */
+    int next() {
+        int best = 0;
+        for (int i = 0; i < current.length; i++) {
+            current[i] += weights[i];
+            if (current[i] > current[best]) {
+                best = i;
+            }
+        }
+        current[best] -= totalWeight;
+        return best;
+    }
+
+    /**
+     * @return The variants of the tree, the index is the one returned by {@link #next()}.
+     */
+    ListedHashTree[] getVariants() {
+        return variants;
+    }
+
+    /**
+     * Split a stock size over the variants by weight.
+     *
+     * @param capacity Total stock size.
+     * @return Stock size per variant.
+     */
+    int[] stockCapacities(int capacity) {
+        int[] capacities = new int[weights.length];
+        for (int i = 0; i < capacities.length; i++) {
+            capacities[i] = capacity <= 0 ? 0 : (int) Math.max(1, Math.round(capacity * weights[i] / totalWeight));
+        }
+        return capacities;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(names[i]).append('=').append(weights[i]);
+        }
+        return result.toString();
+    }
+}
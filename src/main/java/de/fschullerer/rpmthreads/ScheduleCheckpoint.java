@@ -0,0 +1,199 @@
+package de.fschullerer.rpmthreads;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Properties;
+
+import org.apache.jmeter.services.FileServer;
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Position of a running test in its RPM list, written to a local file from time to time. If a long test
+ * dies, it can be started again from the elapsed time of the file, see {@link ResumedProfile}.
+ * <p>
+ * The file is a properties file with the elapsed minutes of the RPM list, the index of the current period
+ * and the number of requests of the RPM list until now. The position is calculated from the periods, not
+ * counted by the thread starters, so writing it costs nothing while firing. Runtime rate changes are not
+ * part of the position. The file is replaced atomically, so a crash while writing leaves the last one, and
+ * it is deleted when the RPM list is finished.
+ * <p>
+ * At the end of a test that was stopped the file is marked as ended. Only a test that died without ending
+ * is resumed automatically, a stopped test can be resumed with the start offset.
+ */
+final class ScheduleCheckpoint {
+
+    static final String ELAPSED_MINUTES = "elapsed_minutes";
+    static final String SEGMENT_INDEX = "segment_index";
+    static final String ARRIVAL_INDEX = "arrival_index";
+    static final String ENDED = "ended";
+
+    private static final double NANOS_PER_MINUTE = 60d * 1000 * 1000 * 1000;
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private final File file;
+    private final String name;
+    private final double offset;
+    private final long startTime;
+
+    // the periods are only passed forward, the elapsed time never goes back
+    private final Iterator<RpmSegment> segments;
+    private RpmSegment segment;
+    private long segmentIndex = -1;
+    private double segmentStart;
+    private double requestsBefore;
+    private boolean finished;
+
+    /**
+     * @param path      Path of the checkpoint file, relative paths are resolved against the test plan.
+     * @param name      Name of the thread group, for the log.
+     * @param profile   The whole RPM list.
+     * @param offset    Minutes of the RPM list skipped at the start.
+     * @param startTime Start of the schedule in nanoseconds of {@link System#nanoTime()}.
+     */
+    ScheduleCheckpoint(String path, String name, Iterable<RpmSegment> profile, double offset, long startTime) {
+        this.file = resolve(path);
+        this.name = name;
+        this.offset = offset;
+        this.startTime = startTime;
+        this.segments = profile.iterator();
+    }
+
+    /**
+     * Resolve a relative path against the directory of the test plan. Unlike
+     * {@link CsvRateProfile#resolve(String)} the file does not need to exist.
+     *
+     * @param path Path of the checkpoint file.
+     * @return The file.
+     */
+    static File resolve(String path) {
+        File resolved = new File(path);
+        if (!resolved.isAbsolute()) {
+            resolved = new File(FileServer.getFileServer().getBaseDir(), path);
+        }
+        return resolved;
+    }
+
+    /**
+     * Read the position to resume from. The period index and the number of requests of the file are checked
+     * against the RPM list, so a checkpoint of another RPM list is not resumed by mistake.
+     *
+     * @param path    Path of the checkpoint file.
+     * @param name    Name of the thread group, for the log.
+     * @param profile The whole RPM list.
+     * @return Elapsed minutes of the RPM list, 0 if there is no checkpoint file or the test ended.
+     */
+    static double readResumeOffset(String path, String name, Iterable<RpmSegment> profile) {
+        File checkpoint = resolve(path);
+        if (!checkpoint.isFile()) {
+            return 0;
+        }
+        Properties properties = new Properties();
+        double elapsed;
+        long segmentIndex;
+        long arrivalIndex;
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            properties.load(in);
+            elapsed = Math.max(0, Double.parseDouble(properties.getProperty(ELAPSED_MINUTES, "0")));
+            segmentIndex = Long.parseLong(properties.getProperty(SEGMENT_INDEX, "0"));
+            arrivalIndex = Long.parseLong(properties.getProperty(ARRIVAL_INDEX, "0"));
+        } catch (IOException | NumberFormatException e) {
+            throw new RuntimeException("Configuration error: can not read checkpoint file " + path, e);
+        }
+        if (Boolean.parseBoolean(properties.getProperty(ENDED))) {
+            log.info("The last test of " + name + " ended after " + elapsed + " minutes of the RPM list, it is "
+                             + "not resumed. Set the start offset to resume it.");
+            return 0;
+        }
+        ResumedProfile resumed = new ResumedProfile(profile, elapsed);
+        long requests = (long) Math.floor(resumed.getRequestsBefore());
+        if (resumed.getSegmentIndex() != segmentIndex || Math.abs(requests - arrivalIndex) > 1) {
+            throw new RuntimeException("Configuration error: checkpoint file " + path + " does not match the RPM "
+                                               + "list, period " + segmentIndex + " and request " + arrivalIndex
+                                               + " in the file, period " + resumed.getSegmentIndex()
+                                               + " and request " + requests + " in the RPM list");
+        }
+        return elapsed;
+    }
+
+    /**
+     * Write the current position, delete the file if the RPM list is finished.
+     */
+    void write() {
+        write(false);
+    }
+
+    /**
+     * Write the position at the end of the test and mark it as ended, delete the file if the RPM list is
+     * finished.
+     */
+    void end() {
+        write(true);
+        LoadProfile.close(segments);
+    }
+
+    private synchronized void write(boolean ended) {
+        double elapsed = offset + (System.nanoTime() - startTime) / NANOS_PER_MINUTE;
+        if (!moveTo(elapsed)) {
+            if (!finished && file.delete()) {
+                log.info(name + " finished the RPM list, deleted checkpoint file " + file);
+            }
+            finished = true;
+            return;
+        }
+        Properties properties = new Properties();
+        // not rounded, so the position can be checked exactly when resuming
+        properties.setProperty(ELAPSED_MINUTES, Double.toString(elapsed));
+        properties.setProperty(SEGMENT_INDEX, Long.toString(segmentIndex));
+        properties.setProperty(ARRIVAL_INDEX, Long.toString(
+                (long) Math.floor(requestsBefore + segment.requestsUntil(elapsed - segmentStart))));
+        if (ended) {
+            properties.setProperty(ENDED, "true");
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                properties.store(out, "Position of " + name + " in the RPM list");
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // file system without atomic moves
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Can not write checkpoint file " + file + " of " + name, e);
+        }
+    }
+
+    /**
+     * Move to the period containing a time.
+     *
+     * @param elapsed Minutes after the start of the RPM list.
+     * @return false if the time is after the end of the RPM list.
+     */
+    private boolean moveTo(double elapsed) {
+        while (segment == null || elapsed >= segmentStart + segment.getDuration()) {
+            if (segment != null) {
+                segmentStart += segment.getDuration();
+                requestsBefore += segment.requestCount();
+            }
+            if (!segments.hasNext()) {
+                segment = null;
+                return false;
+            }
+            segment = segments.next();
+            segmentIndex++;
+        }
+        return true;
+    }
+}
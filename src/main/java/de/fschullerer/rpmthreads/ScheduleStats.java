@@ -0,0 +1,257 @@
+package de.fschullerer.rpmthreads;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Injection accuracy of a {@link RpmThreadGroup}: how late the requests were fired compared to
+ * the planned fire time, the achieved requests per minute and the number of threads.
+ * Recording is lock-free and can be done from any thread.
+ */
+final class ScheduleStats implements ScheduleStatsMBean {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static final double NANOS_PER_MILLI = 1000 * 1000d;
+    private static final double NANOS_PER_MINUTE = 60 * 1000 * NANOS_PER_MILLI;
+
+    private final RpmThreadGroup group;
+    private final String name;
+    // lateness in microseconds
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder drainCompleted = new LongAdder();
+    private final LongAdder drainInterrupted = new LongAdder();
+    private final LongAccumulator peakActive = new LongAccumulator(Long::max, 0);
+    private final long startTime;
+
+    private long windowStart;
+    private long windowStartFired;
+    private volatile double windowRpm;
+    private volatile double maxSustainableRpm = -1;
+
+    private ObjectName objectName;
+
+    /**
+     * @param group      Thread group to watch.
+     * @param groupCount Number of the thread group in the test plan.
+     */
+    ScheduleStats(RpmThreadGroup group, int groupCount) {
+        this.group = group;
+        this.name = group.getName() + " " + groupCount;
+        this.startTime = System.nanoTime();
+        this.windowStart = startTime;
+    }
+
+    /**
+     * Record a sampler thread that was created or handed to a pool worker.
+     */
+    void threadCreated() {
+        created.increment();
+    }
+
+    /**
+     * Record a request that was not fired because the maximum number of active threads was reached.
+     */
+    void requestDropped() {
+        dropped.increment();
+    }
+
+    /**
+     * Record a request that had to wait for a free thread.
+     */
+    void requestQueued() {
+        queued.increment();
+    }
+
+    /**
+     * Record a thread that finished its request during the drain period.
+     */
+    void drainCompleted() {
+        drainCompleted.increment();
+    }
+
+    /**
+     * Record the threads still active at the end of the drain period.
+     *
+     * @param threads Number of threads that are stopped.
+     */
+    void drainInterrupted(int threads) {
+        drainInterrupted.add(threads);
+    }
+
+    /**
+     * Record a fired request.
+     *
+     * @param planned Planned fire time in nanoseconds of {@link System#nanoTime()}.
+     * @param actual  Actual fire time in nanoseconds of {@link System#nanoTime()}.
+     */
+    void requestFired(long planned, long actual) {
+        fired.increment();
+        lateness.record((actual - planned) / 1000);
+        peakActive.accumulate(group.numberOfActiveThreads());
+    }
+
+    /**
+     * Set the result of the adaptive rate control.
+     *
+     * @param rpm Highest RPM at which the limits were kept.
+     */
+    void setMaxSustainableRpm(double rpm) {
+        maxSustainableRpm = rpm;
+    }
+
+    /**
+     * Close the current window and log the values of it. Called periodically by one thread.
+     */
+    void report() {
+        long now = System.nanoTime();
+        long firedNow = fired.sum();
+        if (now > windowStart) {
+            windowRpm = (firedNow - windowStartFired) * NANOS_PER_MINUTE / (now - windowStart);
+        }
+        windowStart = now;
+        windowStartFired = firedNow;
+        log.info(summary());
+    }
+
+    /**
+     * @return All values in one line.
+     */
+    String summary() {
+        return String.format(Locale.ROOT,
+                "%s: fired=%d, windowRpm=%.1f, averageRpm=%.1f, lateness mean=%.3fms p50=%.3fms p99=%.3fms "
+                        + "max=%.3fms, threads active=%d peak=%d created=%d, dropped=%d, queued=%d, tree stock misses=%d, "
+                        + "drain completed=%d interrupted=%d",
+                name, getFiredRequests(), getWindowRpm(), getAverageRpm(), getLatenessMeanMillis(),
+                getLatenessP50Millis(), getLatenessP99Millis(), getLatenessMaxMillis(), getActiveThreads(),
+                getPeakActiveThreads(), getCreatedThreads(), getDroppedRequests(), getQueuedRequests(),
+                getTreeStockMisses(), getDrainCompletedRequests(), getDrainInterruptedRequests());
+    }
+
+    /**
+     * Register as MBean in the platform MBean server. Failures are only logged.
+     */
+    void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("de.fschullerer.rpmthreads:type=RpmThreadGroup,name="
+                                                + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("Could not register MBean for " + name, e);
+            objectName = null;
+        }
+    }
+
+    /**
+     * Remove the MBean from the platform MBean server.
+     */
+    void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.debug("Could not unregister MBean " + objectName + ": " + e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public long getDrainCompletedRequests() {
+        return drainCompleted.sum();
+    }
+
+    @Override
+    public long getDrainInterruptedRequests() {
+        return drainInterrupted.sum();
+    }
+
+    @Override
+    public long getFiredRequests() {
+        return fired.sum();
+    }
+
+    @Override
+    public long getCreatedThreads() {
+        return created.sum();
+    }
+
+    @Override
+    public long getDroppedRequests() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getQueuedRequests() {
+        return queued.sum();
+    }
+
+    @Override
+    public int getActiveThreads() {
+        return group.numberOfActiveThreads();
+    }
+
+    @Override
+    public int getPeakActiveThreads() {
+        return (int) peakActive.get();
+    }
+
+    @Override
+    public double getWindowRpm() {
+        return windowRpm;
+    }
+
+    @Override
+    public double getAverageRpm() {
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed <= 0 ? 0 : fired.sum() * NANOS_PER_MINUTE / elapsed;
+    }
+
+    @Override
+    public double getLatenessMeanMillis() {
+        return lateness.getMean() / 1000;
+    }
+
+    @Override
+    public double getLatenessP50Millis() {
+        return lateness.getValueAtPercentile(50) / 1000d;
+    }
+
+    @Override
+    public double getLatenessP99Millis() {
+        return lateness.getValueAtPercentile(99) / 1000d;
+    }
+
+    @Override
+    public double getLatenessMaxMillis() {
+        return lateness.getMax() / 1000d;
+    }
+
+    @Override
+    public double getMaxSustainableRpm() {
+        return maxSustainableRpm;
+    }
+
+    @Override
+    public long getTreeStockMisses() {
+        return group.getTreeStockMisses();
+    }
+}
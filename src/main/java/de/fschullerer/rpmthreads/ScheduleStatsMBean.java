@@ -0,0 +1,87 @@
+package de.fschullerer.rpmthreads;
+
+/**
+ * JMX view of the {@link ScheduleStats} of a running {@link RpmThreadGroup}.
+ */
+public interface ScheduleStatsMBean {
+
+    /**
+     * @return Number of requests fired since the start of the test.
+     */
+    long getFiredRequests();
+
+    /**
+     * @return Number of sampler threads created (or handed to a pool worker) since the start of the test.
+     */
+    long getCreatedThreads();
+
+    /**
+     * @return Number of requests not fired because the maximum number of active threads was reached.
+     */
+    long getDroppedRequests();
+
+    /**
+     * @return Number of requests that had to wait for a free thread before they were fired.
+     */
+    long getQueuedRequests();
+
+    /**
+     * @return Number of currently active sampler threads.
+     */
+    int getActiveThreads();
+
+    /**
+     * @return Highest number of active sampler threads seen when a request was fired.
+     */
+    int getPeakActiveThreads();
+
+    /**
+     * @return Requests per minute fired in the last completed window.
+     */
+    double getWindowRpm();
+
+    /**
+     * @return Requests per minute fired on average since the start of the test.
+     */
+    double getAverageRpm();
+
+    /**
+     * @return Mean difference between the planned and the actual fire time in milliseconds.
+     */
+    double getLatenessMeanMillis();
+
+    /**
+     * @return 50th percentile of the lateness in milliseconds.
+     */
+    double getLatenessP50Millis();
+
+    /**
+     * @return 99th percentile of the lateness in milliseconds.
+     */
+    double getLatenessP99Millis();
+
+    /**
+     * @return Highest lateness in milliseconds.
+     */
+    double getLatenessMaxMillis();
+
+    /**
+     * @return Maximum sustainable RPM found by the adaptive rate control, -1 if not (yet) known.
+     */
+    double getMaxSustainableRpm();
+
+    /**
+     * @return How often the stock of cloned trees was empty when a request was fired.
+     */
+    long getTreeStockMisses();
+
+    /**
+     * @return Number of requests that finished during the drain period after the test was stopped.
+     */
+    long getDrainCompletedRequests();
+
+    /**
+     * @return Number of requests that were still active at the end of the drain period and were stopped.
+     */
+    long getDrainInterruptedRequests();
+}
@@ -0,0 +1,168 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * One clock thread for the thread starters of all RPM thread groups in the JVM, used if the JMeter property
+ * rpmthreadgroup.shared.clock is true.
+ * <p>
+ * Instead of waiting for their next fire time themselves, the thread starters register it here. The clock
+ * thread waits for the earliest fire time of all thread starters, spinning only shortly before it like
+ * {@link DeadlineWaiter}, and runs the task of every due fire time. The tasks only hand the fire time over
+ * to the executor of their thread starter, so a slow thread group does not delay the others. With many
+ * thread groups only one thread waits precisely and thread starters without requests due need no thread.
+ * The wake-ups of the rate control are handled on the clock thread as long as the rate does not change, see
+ * {@link LiveArrivals#nextTick()}, and the periodic tasks of all thread groups share one housekeeper thread.
+ * <p>
+ * The fire times are kept in a priority queue: with one entry per thread starter it stays small, so a
+ * timer wheel would not be faster.
+ */
+final class SharedClock implements Runnable {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    private static SharedClock instance;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private long sequence;
+    private final ScheduledThreadPoolExecutor housekeeper;
+
+    private SharedClock() {
+        // started by get()
+        housekeeper = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "RpmThreadGroup-SharedHousekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the tasks of ended thread groups are cancelled, the executor runs as long as the JVM
+        housekeeper.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return The clock of this JVM, started with the first call.
+     */
+    static synchronized SharedClock get() {
+        if (instance == null) {
+            instance = new SharedClock();
+            Thread clock = new Thread(instance, "RpmThreadGroup-SharedClock");
+            clock.setDaemon(true);
+            clock.start();
+        }
+        return instance;
+    }
+
+    /**
+     * @return Executor for the statistics, control properties and checkpoints of all thread groups using the
+     * shared clock. It is never shut down, the tasks of a thread group must be cancelled at its end.
+     */
+    ScheduledExecutorService getHousekeeper() {
+        return housekeeper;
+    }
+
+    /**
+     * Run a task at a deadline on the clock thread. The task must not block.
+     *
+     * @param deadline Deadline in nanoseconds of {@link System#nanoTime()}.
+     * @param task     Task to run.
+     * @return The entry to cancel the task.
+     */
+    Entry schedule(long deadline, Runnable task) {
+        lock.lock();
+        try {
+            Entry entry = new Entry(deadline, sequence++, task);
+            queue.add(entry);
+            if (queue.peek() == entry) {
+                // earlier than the deadline the clock waits for
+                changed.signal();
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a task that was not run yet.
+     *
+     * @param entry Entry returned by {@link #schedule(long, Runnable)}.
+     * @return true if the task was removed and will not run.
+     */
+    boolean cancel(Entry entry) {
+        lock.lock();
+        try {
+            return queue.remove(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Runnable due = null;
+            lock.lock();
+            try {
+                Entry head = queue.peek();
+                if (head == null) {
+                    changed.awaitUninterruptibly();
+                    continue;
+                }
+                long remaining = head.deadline - System.nanoTime();
+                if (remaining > DeadlineWaiter.SPIN_NANOS) {
+                    changed.awaitNanos(remaining - DeadlineWaiter.SPIN_NANOS);
+                    continue;
+                }
+                if (remaining <= 0) {
+                    queue.poll();
+                    due = head.task;
+                }
+            } catch (InterruptedException e) {
+                // the clock runs as long as the JVM, nobody should interrupt it
+                log.warn("Shared clock was interrupted");
+                continue;
+            } finally {
+                lock.unlock();
+            }
+            if (due == null) {
+                Thread.yield();
+                continue;
+            }
+            try {
+                due.run();
+            } catch (RuntimeException e) {
+                log.error("Task of the shared clock failed", e);
+            }
+        }
+    }
+
+    /**
+     * A registered fire time. Equal deadlines run in the order they were registered.
+     */
+    static final class Entry implements Comparable<Entry> {
+        private final long deadline;
+        private final long sequence;
+        private final Runnable task;
+
+        private Entry(long deadline, long sequence, Runnable task) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Long.compare(deadline - other.deadline, 0);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package de.fschullerer.rpmthreads;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+
+/**
+ * Yields random fire times of all requests of a list of {@link RpmSegment}s one after the other.
+ * <p>
+ * The random numbers are drawn in the number of requests instead of the time: the distance between
+ * two requests is an exponentially distributed number of requests with mean 1, converted to a time
+ * with {@link RpmSegment#timeOfRequest(double)}. So the requests per minute still follow the RPM list
+ * on average while a single waiting time is random (Poisson process).
+ * With a burst factor greater than 1 requests arrive in bursts of on average burst factor requests at
+ * the same time, with accordingly longer pauses between the bursts.
+ */
+final class StochasticArrivals implements PrimitiveIterator.OfLong, Closeable {
+
+    private static final double NANOS_PER_MINUTE = 60d * 1000 * 1000 * 1000;
+
+    private final Iterator<RpmSegment> segments;
+    private final SplittableRandom random;
+    private final double burstFactor;
+
+    private RpmSegment segment;
+    // start of the current period in minutes after the start of the test
+    private double segmentStart;
+    private double segmentEnd;
+    // requests of the current period so far
+    private double count;
+    private long burstLeft;
+
+    private boolean hasNext;
+    private long next;
+
+    /**
+     * @param segments    The periods of the test in the given order.
+     * @param random      Random numbers.
+     * @param burstFactor Mean number of requests fired at the same time, 1 for a Poisson process.
+     */
+    StochasticArrivals(Iterable<RpmSegment> segments, SplittableRandom random, double burstFactor) {
+        this.segments = segments.iterator();
+        this.random = random;
+        this.burstFactor = Math.max(1, burstFactor);
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return Fire time of the next request in nanoseconds after the start of the test.
+     */
+    @Override
+    public long nextLong() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        long result = next;
+        advance();
+        return result;
+    }
+
+    /**
+     * Close the file of the profile if the iteration is abandoned before the end.
+     */
+    @Override
+    public void close() {
+        LoadProfile.close(segments);
+    }
+
+    private void advance() {
+        if (burstLeft > 0) {
+            // next request of the burst at the same time
+            burstLeft--;
+            return;
+        }
+        count += nextDistance();
+        while (segment == null || count > segment.requestCount()) {
+            if (segment != null) {
+                // the rest of the distance counts in the next period
+                count -= segment.requestCount();
+                segmentStart = segmentEnd;
+            }
+            if (!segments.hasNext()) {
+                hasNext = false;
+                return;
+            }
+            segment = segments.next();
+            segmentEnd = segmentStart + segment.getDuration();
+        }
+        next = Math.round((segmentStart + segment.timeOfRequest(count)) * NANOS_PER_MINUTE);
+        hasNext = true;
+        if (burstFactor > 1) {
+            burstLeft = nextBurstSize() - 1;
+        }
+    }
+
+    /**
+     * @return Distance to the next request (or burst) as exponentially distributed number of requests.
+     */
+    private double nextDistance() {
+        return -Math.log(1 - random.nextDouble()) * burstFactor;
+    }
+
+    /**
+     * @return Geometrically distributed burst size with mean burst factor.
+     */
+    private long nextBurstSize() {
+        return 1 + (long) Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - 1 / burstFactor));
+    }
+}
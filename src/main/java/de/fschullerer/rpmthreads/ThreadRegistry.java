@@ -0,0 +1,114 @@
+package de.fschullerer.rpmthreads;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.threads.JMeterThread;
+
+/**
+ * Active threads of a {@link RpmThreadGroup}, indexed by JMeter thread and thread name.
+ * Waiting for all threads to finish is done on one monitor that is notified when the last thread
+ * is removed, instead of joining every thread.
+ */
+final class ThreadRegistry {
+
+    // List of active threads
+    private final Map<JMeterThread, Thread> threads = new ConcurrentHashMap<>();
+    private final Map<String, JMeterThread> byName = new ConcurrentHashMap<>();
+    private final Object emptyMonitor = new Object();
+
+    /**
+     * Register a thread when it starts.
+     *
+     * @param jMeterThread {@link JMeterThread}
+     * @param thread       Thread running it.
+     */
+    void register(JMeterThread jMeterThread, Thread thread) {
+        threads.put(jMeterThread, thread);
+        byName.put(jMeterThread.getThreadName(), jMeterThread);
+    }
+
+    /**
+     * Remove a finished thread.
+     *
+     * @param jMeterThread {@link JMeterThread}
+     */
+    void unregister(JMeterThread jMeterThread) {
+        if (threads.remove(jMeterThread) == null) {
+            return;
+        }
+        byName.remove(jMeterThread.getThreadName(), jMeterThread);
+        if (threads.isEmpty()) {
+            synchronized (emptyMonitor) {
+                emptyMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @param threadName Name of a JMeter thread.
+     * @return The active JMeter thread or null.
+     */
+    JMeterThread getByName(String threadName) {
+        return byName.get(threadName);
+    }
+
+    /**
+     * @param jMeterThread {@link JMeterThread}
+     * @return The thread running it or null if it is not active.
+     */
+    Thread getThread(JMeterThread jMeterThread) {
+        return threads.get(jMeterThread);
+    }
+
+    /**
+     * @return Number of active threads.
+     */
+    int size() {
+        return threads.size();
+    }
+
+    /**
+     * @return Active JMeter threads and the threads running them.
+     */
+    Set<Map.Entry<JMeterThread, Thread>> entrySet() {
+        return threads.entrySet();
+    }
+
+    /**
+     * @return Active JMeter threads.
+     */
+    Set<JMeterThread> jMeterThreads() {
+        return threads.keySet();
+    }
+
+    /**
+     * @return Threads running the active JMeter threads.
+     */
+    Collection<Thread> threads() {
+        return threads.values();
+    }
+
+    /**
+     * Wait until there are no more active threads.
+     *
+     * @param deadline Deadline in nanoseconds of {@link System#nanoTime()}.
+     * @return true if all threads finished, false if the deadline was reached before.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    boolean awaitEmpty(long deadline) throws InterruptedException {
+        synchronized (emptyMonitor) {
+            while (!threads.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(emptyMonitor, remaining);
+            }
+            return true;
+        }
+    }
+}
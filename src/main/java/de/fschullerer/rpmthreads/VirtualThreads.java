@@ -0,0 +1,82 @@
+package de.fschullerer.rpmthreads;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.apache.jorphan.logging.LoggingManager;
+import org.apache.log.Logger;
+
+/**
+ * Access to virtual threads (Java 21+) without compiling against a newer JDK.
+ * On older JVMs {@link #isSupported()} is false and callers have to fall back to platform threads.
+ */
+final class VirtualThreads {
+
+    private static final Logger log = LoggingManager.getLoggerForClass();
+
+    // Thread.ofVirtual()
+    private static final MethodHandle OF_VIRTUAL;
+    // Thread.Builder.name(String)
+    private static final MethodHandle NAME;
+    // Thread.Builder.unstarted(Runnable)
+    private static final MethodHandle UNSTARTED;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle name = null;
+        MethodHandle unstarted = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            ofVirtual = lookup.findStatic(Thread.class, "ofVirtual",
+                    MethodType.methodType(Class.forName("java.lang.Thread$Builder$OfVirtual")));
+            name = lookup.findVirtual(builderClass, "name", MethodType.methodType(builderClass, String.class));
+            unstarted = lookup.findVirtual(builderClass, "unstarted",
+                    MethodType.methodType(Thread.class, Runnable.class));
+            // Java 19 and 20 only have virtual threads as preview feature, this fails if it is not enabled
+            ofVirtual.invoke();
+        } catch (Throwable e) { // NOSONAR also covers UnsupportedOperationException of a disabled preview
+            log.debug("Virtual threads are not available: " + e);
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private VirtualThreads() {
+        // Utility class.
+    }
+
+    /**
+     * Does this JVM support virtual threads?
+     *
+     * @return true if {@link #newThread(Runnable, String)} can be used.
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a new, not yet started virtual thread.
+     *
+     * @param task Runnable to run.
+     * @param name Name of the thread.
+     * @return The unstarted virtual thread.
+     */
+    static Thread newThread(Runnable task, String name) {
+        if (OF_VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke();
+            builder = NAME.invoke(builder, name);
+            return (Thread) UNSTARTED.invoke(builder, task);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not create virtual thread " + name, e);
+        }
+    }
+}
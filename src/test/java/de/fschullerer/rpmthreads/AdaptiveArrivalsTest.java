@@ -0,0 +1,141 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.Test;
+
+/**
+ * Capacity search against a fake system: the response times and errors of every step are given, the
+ * samples are fed to the response collector while the fire times of the step are taken.
+ */
+public class AdaptiveArrivalsTest {
+
+    private static final double NANOS_PER_MINUTE = 60d * 1000 * 1000 * 1000;
+    private static final long STEP = Math.round(NANOS_PER_MINUTE);
+
+    private static final long OK = 100;
+    private static final long SLOW = 500;
+
+    @Test
+    public void limitsKeptUntilTheMaximum() {
+        Search search = new Search(50, 0);
+        List<Long> times = search.run(OK, OK, OK, OK);
+
+        assertEquals(50, search.stats.getMaxSustainableRpm(), 0);
+        // ramps 10-20, 20-30, 30-40 and 40-50
+        assertEquals(15 + 25 + 35 + 45, times.size());
+        assertEquals(4 * STEP, (long) times.get(times.size() - 1));
+    }
+
+    @Test
+    public void limitExceededHoldsTheLastGoodRpm() {
+        Search search = new Search(100, 0);
+        List<Long> times = search.run(OK, OK, SLOW, OK);
+
+        assertEquals(30, search.stats.getMaxSustainableRpm(), 0);
+        assertEquals(15 + 25 + 35 + 30, times.size());
+        // the hold at 30 RPM after the third step: one request every 2 seconds
+        assertHold(30, 3, times.subList(75, 105));
+    }
+
+    @Test
+    public void holdExceededStepsDown() {
+        Search search = new Search(100, 0);
+        List<Long> times = search.run(OK, OK, SLOW, SLOW, OK);
+
+        assertEquals(20, search.stats.getMaxSustainableRpm(), 0);
+        assertEquals(15 + 25 + 35 + 30 + 20, times.size());
+        assertHold(30, 3, times.subList(75, 105));
+        assertHold(20, 4, times.subList(105, 125));
+    }
+
+    @Test
+    public void errorRateExceeded() {
+        Search search = new Search(100, 5);
+        search.failedStep = 1;
+        List<Long> times = search.run(OK, OK, OK);
+
+        assertEquals(20, search.stats.getMaxSustainableRpm(), 0);
+        assertHold(20, 2, times.subList(40, 60));
+    }
+
+    @Test
+    public void nothingSustainable() {
+        Search search = new Search(100, 0);
+        List<Long> times = search.run(SLOW, SLOW);
+
+        assertEquals(0, search.stats.getMaxSustainableRpm(), 0);
+        assertEquals(15 + 10, times.size());
+        assertFalse(search.arrivals.hasNext());
+    }
+
+    @Test
+    public void startStepAndDurationMustBePositive() {
+        assertInvalid(0, 10, 1);
+        assertInvalid(-10, 10, 1);
+        assertInvalid(10, 0, 1);
+        assertInvalid(10, 10, 0);
+        assertInvalid(10, 10, -1);
+        assertInvalid(Double.NaN, 10, 1);
+    }
+
+    private static void assertInvalid(double startRpm, double stepRpm, double stepDuration) {
+        try {
+            new AdaptiveArrivals("Test", new ResponseCollector(), new ScheduleStats(new RpmThreadGroup(), 1),
+                    startRpm, stepRpm, stepDuration, 100, 95, 200, 0);
+            fail("accepted start " + startRpm + " step " + stepRpm + " duration " + stepDuration);
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Configuration error in adaptive rate: "));
+        }
+    }
+
+    private static void assertHold(double rpm, int step, List<Long> times) {
+        long interval = Math.round(NANOS_PER_MINUTE / rpm);
+        assertEquals(Math.round(rpm), times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(step * STEP + (i + 1) * interval, (double) times.get(i), 1000);
+        }
+    }
+
+    /**
+     * Search from 10 RPM in steps of 10 RPM per minute, with a limit of 200 ms at the 95th percentile.
+     */
+    private static final class Search {
+        private final ResponseCollector collector = new ResponseCollector();
+        private final ScheduleStats stats = new ScheduleStats(new RpmThreadGroup(), 1);
+        private final AdaptiveArrivals arrivals;
+        private int failedStep = -1;
+
+        Search(double maxRpm, double maxErrorRate) {
+            arrivals = new AdaptiveArrivals("Test", collector, stats, 10, 10, 1, maxRpm, 95, 200, maxErrorRate);
+        }
+
+        /**
+         * @param responseTimes Response time of the samples of each step in milliseconds.
+         * @return All fire times.
+         */
+        List<Long> run(long... responseTimes) {
+            List<Long> times = new ArrayList<>();
+            while (arrivals.hasNext()) {
+                long time = arrivals.nextLong();
+                times.add(time);
+                // the last request of a step is fired at its end
+                int step = (int) Math.max(0, (time - 1) / STEP);
+                assertTrue("more steps than expected", step < responseTimes.length);
+                SampleResult result = new SampleResult();
+                result.setStampAndTime(0, responseTimes[step]);
+                result.setSuccessful(step != failedStep);
+                collector.sampleOccurred(new SampleEvent(result, "Test"));
+            }
+            return times;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Number and times of the requests of whole RPM lists, and the requests of single load generators and
+ * thread starters.
+ */
+public class ArrivalIteratorTest {
+
+    private static final double NANOS_PER_MINUTE = 60d * 1000 * 1000 * 1000;
+
+    @Test
+    public void requestsOfEveryPeriod() {
+        String rpmList = "10-20-1;20-0-1.5;0-0-1;0-10-2;10-10-0;7-7-1";
+        // requests of every period: the area below the RPM line, the whole list rounded down
+        double[] counts = {15, 15, 0, 10, 0, 7};
+        assertRequestsPerPeriod(rpmList, counts);
+    }
+
+    @Test
+    public void ascendingAndDescendingRamps() {
+        assertEquals(15, fireTimes("10-20-1").size());
+        assertEquals(15, fireTimes("20-10-1").size());
+        assertEquals(50, fireTimes("0-100-1").size());
+        assertEquals(50, fireTimes("100-0-1").size());
+        assertRequestsPerPeriod("0-60-2;60-0-2", new double[]{60, 60});
+    }
+
+    @Test
+    public void descendingToZeroFiresTheLastRequestAtTheEnd() {
+        List<Long> times = fireTimes("10-0-2");
+        assertEquals(10, times.size());
+        assertEquals(Math.round(2 * NANOS_PER_MINUTE), (long) times.get(9));
+    }
+
+    @Test
+    public void constantRateFiresEvenly() {
+        List<Long> times = fireTimes("60-60-1");
+        assertEquals(60, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals((i + 1) * 1000L * 1000 * 1000, (long) times.get(i));
+        }
+    }
+
+    @Test
+    public void noRequestsWithoutRateOrDuration() {
+        assertTrue(fireTimes("0-0-10").isEmpty());
+        assertTrue(fireTimes("10-10-0").isEmpty());
+        assertTrue(fireTimes("0-0-0").isEmpty());
+        assertFalse(new ArrivalIterator(LoadProfile.parse("0-0-10;5-5-0")).hasNext());
+    }
+
+    @Test
+    public void fractionalRequestsCarryOverToTheNextPeriod() {
+        // 0.1 requests per minute for 30 minutes are 3 requests, not 0 per minute
+        List<Long> times = fireTimes("0.1-0.1-30");
+        assertEquals(3, times.size());
+        assertEquals(Math.round(10 * NANOS_PER_MINUTE), (long) times.get(0));
+        assertEquals(Math.round(30 * NANOS_PER_MINUTE), (long) times.get(2));
+
+        // 1.5 + 1.5 requests: the half request of the first period is completed in the second one
+        times = fireTimes("1.5-1.5-1;1.5-1.5-1");
+        assertEquals(3, times.size());
+        assertEquals(Math.round(NANOS_PER_MINUTE / 1.5), (long) times.get(0));
+        assertEquals(Math.round(2 * NANOS_PER_MINUTE / 1.5), (long) times.get(1));
+        assertEquals(Math.round(2 * NANOS_PER_MINUTE), (long) times.get(2));
+
+        // 0.5 requests in each of 5 periods
+        assertEquals(2, fireTimes("0.5-0.5-1;0.5-0.5-1;0.5-0.5-1;0.5-0.5-1;0.5-0.5-1").size());
+    }
+
+    @Test
+    public void sinusCurveOfADay() {
+        // mean 600 RPM for 1440 minutes
+        assertEquals(864000, fireTimes("sine:600-300-1440-1440").size());
+    }
+
+    @Test
+    public void fireTimesAreAscending() {
+        List<Long> times = fireTimes("0-100-3;50-5-2.5;0.3-0.3-10;steps:10-50-4-8");
+        for (int i = 1; i < times.size(); i++) {
+            assertTrue("request " + (i + 1), times.get(i) >= times.get(i - 1));
+        }
+    }
+
+    @Test
+    public void shardsTogetherAreTheWholeList() {
+        String rpmList = "10-20-1;20-0-1.5;0.1-0.1-30;0-10-2";
+        List<Long> all = fireTimes(rpmList);
+        for (int step = 1; step <= 4; step++) {
+            for (int index = 0; index < step; index++) {
+                List<Long> shard = toList(new ArrivalIterator(LoadProfile.parse(rpmList), index, step));
+                List<Long> expected = new ArrayList<>();
+                for (int i = index; i < all.size(); i += step) {
+                    expected.add(all.get(i));
+                }
+                assertEquals("index " + index + " step " + step, expected, shard);
+            }
+        }
+    }
+
+    @Test
+    public void loadGeneratorsAndThreadStartersTakeTurns() {
+        // as in RpmThreadGroup: 3 load generators with 2 thread starters each, node n and starter s fire
+        // every 6th request starting with index n + s * 3
+        String rpmList = "0-600-1;600-600-1";
+        List<Long> all = fireTimes(rpmList);
+        int nodeCount = 3;
+        int shardCount = 2;
+        List<Long> merged = new ArrayList<>();
+        for (int node = 0; node < nodeCount; node++) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                merged.addAll(toList(new ArrivalIterator(LoadProfile.parse(rpmList),
+                        node + (long) shard * nodeCount, (long) nodeCount * shardCount)));
+            }
+        }
+        merged.sort(null);
+        assertEquals(all, merged);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stepMustBePositive() {
+        new ArrivalIterator(LoadProfile.parse("10-10-1"), 0, 0);
+    }
+
+    private static void assertRequestsPerPeriod(String rpmList, double[] counts) {
+        List<Long> times = fireTimes(rpmList);
+        double start = 0;
+        double countBefore = 0;
+        int fired = 0;
+        int segment = 0;
+        for (RpmSegment period : LoadProfile.parse(rpmList)) {
+            double end = start + period.getDuration();
+            double countEnd = countBefore + counts[segment];
+            long expected = (long) Math.floor(countEnd + 1e-9) - (long) Math.floor(countBefore + 1e-9);
+            long inPeriod = 0;
+            while (fired < times.size() && times.get(fired) <= Math.round(end * NANOS_PER_MINUTE)) {
+                assertTrue(times.get(fired) >= Math.round(start * NANOS_PER_MINUTE));
+                inPeriod++;
+                fired++;
+            }
+            assertEquals("period " + (segment + 1) + " of " + rpmList, expected, inPeriod);
+            start = end;
+            countBefore = countEnd;
+            segment++;
+        }
+        assertEquals(counts.length, segment);
+        assertEquals(times.size(), fired);
+    }
+
+    private static List<Long> fireTimes(String rpmList) {
+        return toList(new ArrivalIterator(LoadProfile.parse(rpmList)));
+    }
+
+    private static List<Long> toList(ArrivalIterator arrivals) {
+        List<Long> times = new ArrayList<>();
+        while (arrivals.hasNext()) {
+            times.add(arrivals.nextLong());
+        }
+        return times;
+    }
+}
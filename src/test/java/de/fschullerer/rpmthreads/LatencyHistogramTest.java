@@ -0,0 +1,150 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Percentiles of the lateness histogram compared with the exact percentiles of the recorded values, and the
+ * statistics line of the thread group.
+ */
+public class LatencyHistogramTest {
+
+    // a value is reported at most one sub bucket (1/32) too high
+    private static final double MAX_ERROR = 1d / 32;
+
+    private static final double[] PERCENTILES = {1, 50, 90, 99, 99.9, 100};
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 32; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-5);
+
+        assertEquals(33, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(15, histogram.getValueAtPercentile(50));
+        assertEquals(31, histogram.getValueAtPercentile(100));
+        assertEquals(31, histogram.getMax());
+        assertEquals(496d / 33, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void emptyHistogramReturnsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void percentilesWithinErrorBound() {
+        // long tailed like the lateness of fired requests
+        Random random = new Random(42);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (-500 * Math.log(1 - random.nextDouble())) + (random.nextInt(100) == 0 ? 50_000 : 0);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value : values) {
+            histogram.record(value);
+        }
+
+        assertPercentiles(values, histogram);
+        assertEquals(Arrays.stream(values).average().getAsDouble(), histogram.getMean(), 1e-6);
+    }
+
+    @Test
+    public void p50AndP99OfEvenlySpreadValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+
+        assertBetween(50_000, histogram.getValueAtPercentile(50));
+        assertBetween(99_000, histogram.getValueAtPercentile(99));
+        assertEquals(100_000, histogram.getValueAtPercentile(100));
+        assertEquals(50_000.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void recordsFromSeveralThreads() throws InterruptedException {
+        int threads = 4;
+        int perThread = 50_000;
+        long[] values = new long[threads * perThread];
+        LatencyHistogram histogram = new LatencyHistogram();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            int first = t * perThread;
+            for (int i = first; i < first + perThread; i++) {
+                values[i] = random.nextInt(1_000_000);
+            }
+            recorders[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = first; i < first + perThread; i++) {
+                    histogram.record(values[i]);
+                }
+            });
+            recorders[t].start();
+        }
+        start.countDown();
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(Arrays.stream(values).max().getAsLong(), histogram.getMax());
+        assertPercentiles(values, histogram);
+    }
+
+    @Test
+    public void summaryOfScheduleStats() {
+        RpmThreadGroup group = new RpmThreadGroup();
+        group.setName("Checkout");
+        ScheduleStats stats = new ScheduleStats(group, 1);
+        // 2 ms late
+        stats.requestFired(0, 2_000_000);
+        stats.requestFired(1_000_000, 3_000_000);
+        stats.threadCreated();
+        stats.requestDropped();
+        stats.requestQueued();
+        stats.requestQueued();
+        stats.drainInterrupted(3);
+
+        String summary = stats.summary();
+
+        assertTrue(summary, summary.startsWith("Checkout 1: fired=2, windowRpm=0.0, averageRpm="));
+        assertTrue(summary, summary.contains(
+                ", lateness mean=2.000ms p50=2.000ms p99=2.000ms max=2.000ms, threads active=0 peak=0 created=1, "
+                        + "dropped=1, queued=2, tree stock misses=0, drain completed=0 interrupted=3"));
+    }
+
+    private static void assertPercentiles(long[] values, LatencyHistogram histogram) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double percentile : PERCENTILES) {
+            int rank = (int) Math.max(1, Math.ceil(percentile / 100 * sorted.length));
+            assertBetween(sorted[rank - 1], histogram.getValueAtPercentile(percentile));
+        }
+    }
+
+    private static void assertBetween(long exact, long reported) {
+        assertTrue(exact + " reported as " + reported,
+                reported >= exact && reported <= exact + Math.round(exact * MAX_ERROR));
+    }
+}
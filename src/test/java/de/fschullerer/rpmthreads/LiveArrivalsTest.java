@@ -0,0 +1,182 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Fire times of the RPM list with runtime rate changes, compared with the fire times of the RPM list alone,
+ * for one thread starter and for several taking turns.
+ */
+public class LiveArrivalsTest {
+
+    private static final double NANOS_PER_MINUTE = 60d * 1000 * 1000 * 1000;
+
+    // 32.5 requests: the last request is fired before the end of the RPM list
+    private static final String RPM_LIST = "10-20-1;20-0-1.5;0.25-0.25-10";
+    private static final long LIST_END = Math.round(12.5 * NANOS_PER_MINUTE);
+
+    private static final long TICK = 100L * 1000 * 1000;
+
+    private static final int[] SHARD_COUNTS = {1, 3};
+
+    @Test
+    public void scaleOneFiresTheRpmList() {
+        for (int shardCount : SHARD_COUNTS) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                List<Long> base = baseTimes(RPM_LIST, shard, shardCount);
+                assertEquals(base, fireTimes(live(new RateControl("Test", 1), shard, shardCount, 0)));
+
+                // the wake-ups change nothing
+                List<Long> times = new ArrayList<>();
+                LiveArrivals arrivals = live(new RateControl("Test", 1), shard, shardCount, TICK);
+                long last = 0;
+                while (arrivals.hasNext()) {
+                    long time = arrivals.nextLong();
+                    assertTrue(time - last <= TICK);
+                    last = time;
+                    if (!arrivals.isWakeup()) {
+                        times.add(time);
+                    }
+                }
+                assertEquals(base, times);
+                // the RPM list is followed until its end, not only until the last request
+                assertEquals(LIST_END, last);
+            }
+        }
+    }
+
+    @Test
+    public void scaleTwoFiresTwoRequestsPerGap() {
+        for (int shardCount : SHARD_COUNTS) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                RateControl control = new RateControl("Test", 1);
+                control.setScale(2);
+                List<Long> expected = new ArrayList<>();
+                long before = 0;
+                for (long time : baseTimes(RPM_LIST, shard, shardCount)) {
+                    expected.add(before + Math.round(0.5 * (time - before)));
+                    expected.add(time);
+                    before = time;
+                }
+                assertEquals("shard " + shard + " of " + shardCount, expected,
+                        fireTimes(live(control, shard, shardCount, 0)));
+            }
+        }
+    }
+
+    @Test
+    public void scaleHalfFiresEverySecondRequest() {
+        for (int shardCount : SHARD_COUNTS) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                RateControl control = new RateControl("Test", 1);
+                control.setScale(0.5);
+                List<Long> base = baseTimes(RPM_LIST, shard, shardCount);
+                List<Long> expected = new ArrayList<>();
+                for (int i = 1; i < base.size(); i += 2) {
+                    expected.add(base.get(i));
+                }
+                assertEquals("shard " + shard + " of " + shardCount, expected,
+                        fireTimes(live(control, shard, shardCount, 0)));
+            }
+        }
+    }
+
+    @Test
+    public void targetRpmFiresEvenlyUntilTheEndOfTheRpmList() {
+        for (int shardCount : SHARD_COUNTS) {
+            int fired = 0;
+            for (int shard = 0; shard < shardCount; shard++) {
+                RateControl control = new RateControl("Test", 1);
+                LiveArrivals arrivals = live(control, shard, shardCount, TICK);
+                List<Long> base = baseTimes(RPM_LIST, shard, shardCount);
+                // the RPM list is followed until the target is set after 2 minutes
+                long switchTime = Math.round(2 * NANOS_PER_MINUTE);
+                int index = 0;
+                long last = 0;
+                while (last < switchTime) {
+                    last = arrivals.nextLong();
+                    if (!arrivals.isWakeup()) {
+                        assertEquals((long) base.get(index++), last);
+                    }
+                }
+                control.setTargetRpm(120);
+                // 120 RPM of all thread starters together
+                long interval = Math.round(NANOS_PER_MINUTE / 120 * shardCount);
+                List<Long> times = fireTimes(arrivals);
+                long before = last;
+                for (long time : times) {
+                    assertTrue(time <= LIST_END);
+                    assertTrue(time - before <= interval);
+                    before = time;
+                }
+                assertTrue(LIST_END - before < interval);
+                fired += times.size();
+            }
+            // 10.5 minutes at 120 RPM
+            assertEquals(1260, fired, shardCount);
+        }
+    }
+
+    @Test
+    public void appendedSegmentsStartAtTheEndOfTheRpmList() {
+        String appended = "hold:30-2;0-30-1";
+        List<Long> all = null;
+        for (int shardCount : SHARD_COUNTS) {
+            List<Long> merged = new ArrayList<>();
+            for (int shard = 0; shard < shardCount; shard++) {
+                RateControl control = new RateControl("Test", 1);
+                control.appendRpmList(appended);
+                control.appendRpmList(RPM_LIST);
+                List<Long> expected = baseTimes(RPM_LIST, shard, shardCount);
+                for (long time : baseTimes(appended, shard, shardCount)) {
+                    expected.add(LIST_END + time);
+                }
+                long secondEnd = LIST_END + Math.round(3 * NANOS_PER_MINUTE);
+                for (long time : baseTimes(RPM_LIST, shard, shardCount)) {
+                    expected.add(secondEnd + time);
+                }
+                List<Long> times = fireTimes(live(control, shard, shardCount, TICK));
+                assertEquals("shard " + shard + " of " + shardCount, expected, times);
+                merged.addAll(times);
+            }
+            merged.sort(null);
+            if (all == null) {
+                all = merged;
+            } else {
+                // the thread starters still take turns after the end of the RPM list
+                assertEquals(all, merged);
+            }
+        }
+    }
+
+    private static LiveArrivals live(RateControl control, int shard, int shardCount, long tick) {
+        return new LiveArrivals(new ArrivalIterator(LoadProfile.parse(RPM_LIST), shard, shardCount), control,
+                segments -> new ArrivalIterator(segments, shard, shardCount), tick, 1d / shardCount,
+                () -> LoadProfile.duration(LoadProfile.parse(RPM_LIST)));
+    }
+
+    private static List<Long> baseTimes(String rpmList, int shard, int shardCount) {
+        ArrivalIterator arrivals = new ArrivalIterator(LoadProfile.parse(rpmList), shard, shardCount);
+        List<Long> times = new ArrayList<>();
+        while (arrivals.hasNext()) {
+            times.add(arrivals.nextLong());
+        }
+        return times;
+    }
+
+    private static List<Long> fireTimes(LiveArrivals arrivals) {
+        List<Long> times = new ArrayList<>();
+        while (arrivals.hasNext()) {
+            long time = arrivals.nextLong();
+            if (!arrivals.isWakeup()) {
+                times.add(time);
+            }
+        }
+        return times;
+    }
+}
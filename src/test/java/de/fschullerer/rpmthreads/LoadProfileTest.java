@@ -0,0 +1,243 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Requests and durations of the profile shapes and of CSV rate files.
+ */
+public class LoadProfileTest {
+
+    private static final double DELTA = 1e-9;
+
+    // 1000 seconds after an epoch, with a comment, a header, an empty line and all separators
+    private static final String CSV = "# production traffic\n"
+            + "time,rpm\n"
+            + "1000,60\n"
+            + "1060;120\n"
+            + "\n"
+            + "1180 0\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void requestsOfTheShapes() {
+        assertProfile("hold:30-2", 60, 2, 1);
+        // 10, 20, 30 and 40 RPM for 2 minutes each
+        assertProfile("steps:10-40-4-8", 200, 8, 4);
+        assertProfile("steps:25-99-1-4", 100, 4, 1);
+        // rise, hold and fall
+        assertProfile("spike:10-100-2-3-1", 110 + 300 + 55, 6, 3);
+        // the linear pieces have their corners on the curve, over whole periods the mean is exact
+        assertProfile("sine:100-50-60-120", 12000, 120, 2 * LoadProfile.SINE_PIECES);
+        assertProfile("sine:10-10-1440-1440", 14400, 1440, LoadProfile.SINE_PIECES);
+        assertProfile("10-20-1; hold:30-2 ;steps:10-40-4-8", 15 + 60 + 200, 11, 6);
+    }
+
+    @Test
+    public void partOfASinePeriod() {
+        LoadProfile profile = LoadProfile.parse("sine:100-50-60-15");
+        List<RpmSegment> segments = segments(profile);
+
+        assertEquals(LoadProfile.SINE_PIECES / 4, segments.size());
+        assertEquals(15, LoadProfile.duration(profile), DELTA);
+        assertEquals(100, segments.get(0).getStartRPM(), DELTA);
+        assertEquals(150, segments.get(segments.size() - 1).getEndRPM(), DELTA);
+        // the quarter of the curve above the mean: 100 * 15 + 50 * 60 / (2 * PI), a bit less for the chords
+        double requests = requests(profile);
+        double curve = 1500 + 3000 / (2 * Math.PI);
+        assertTrue(requests < curve && requests > curve - 1);
+    }
+
+    @Test
+    public void invalidEntriesAreRejected() {
+        assertConfigurationError("hold:30", "needs 2 values separated by -");
+        assertConfigurationError("hold:30-x", "x is not a number");
+        assertConfigurationError("spike:10--100-2-3-1", "needs 5 values separated by -");
+        assertConfigurationError("steps:10-40-0-8", "number of steps must be at least 1");
+        assertConfigurationError("sine:10-20-60-60", "amplitude must not be larger than the mean RPM");
+        assertConfigurationError("sine:10-5-0-60", "period must be larger than 0");
+        assertConfigurationError("ramp:10-20-1", "unknown type ramp");
+    }
+
+    @Test
+    public void csvFile() throws IOException {
+        File file = write("rates.csv", CSV);
+        assertCsvProfile(LoadProfile.parse("file:" + file.getAbsolutePath()));
+    }
+
+    @Test
+    public void gzippedCsvFile() throws IOException {
+        File file = folder.newFile("rates.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(CSV.getBytes(StandardCharsets.UTF_8));
+        }
+        assertCsvProfile(LoadProfile.parse("file:" + file.getAbsolutePath()));
+    }
+
+    @Test
+    public void csvFileWithoutHeader() throws IOException {
+        File file = write("rates.csv", "0 30\n120 30\n");
+        LoadProfile profile = LoadProfile.parse("hold:60-1;file:" + file.getAbsolutePath() + ";hold:60-1");
+
+        assertEquals(3, segments(profile).size());
+        assertEquals(4, LoadProfile.duration(profile), DELTA);
+        assertEquals(180, requests(profile), DELTA);
+    }
+
+    @Test
+    public void invalidCsvLinesAreRejected() throws IOException {
+        assertCsvError("time,rpm\n0,60\nsoon,60\n", "line 3: timestamp and RPM expected: soon,60");
+        // only the first line with content can be a header
+        assertCsvError("0,60\ntime,rpm\n60,60\n", "line 2: timestamp and RPM expected: time,rpm");
+        assertCsvError("0,60\n60,-1\n", "line 2: negative RPM or decreasing timestamp: 60,-1");
+        assertCsvError("60,60\n0,60\n", "line 2: negative RPM or decreasing timestamp: 0,60");
+    }
+
+    @Test
+    public void iterationClosedBeforeTheEnd() throws IOException {
+        File file = write("rates.csv", CSV);
+        // the open file can only be seen on Linux
+        Assume.assumeTrue(new File("/proc/self/fd").isDirectory());
+
+        ArrivalIterator arrivals = new ArrivalIterator(LoadProfile.parse("file:" + file.getAbsolutePath()));
+        for (int i = 0; i < 10; i++) {
+            arrivals.nextLong();
+        }
+        assertEquals(1, openFiles(file));
+        arrivals.close();
+        assertEquals(0, openFiles(file));
+
+        // the fire times with runtime rate changes close the file of the RPM list
+        String rpmList = "file:" + file.getAbsolutePath();
+        LiveArrivals live = new LiveArrivals(new ArrivalIterator(LoadProfile.parse(rpmList)),
+                new RateControl("Test", 1), ArrivalIterator::new, 0, 1, () -> Double.NaN);
+        live.nextLong();
+        assertEquals(1, openFiles(file));
+        live.close();
+        assertEquals(0, openFiles(file));
+
+        // the file is closed at its end, closing again does nothing
+        ArrivalIterator all = new ArrivalIterator(LoadProfile.parse(rpmList));
+        while (all.hasNext()) {
+            all.nextLong();
+        }
+        assertEquals(0, openFiles(file));
+        all.close();
+        assertFalse(all.hasNext());
+    }
+
+    private static void assertCsvProfile(LoadProfile profile) {
+        List<RpmSegment> segments = segments(profile);
+        assertEquals(2, segments.size());
+        assertSegment(60, 120, 1, segments.get(0));
+        assertSegment(120, 0, 2, segments.get(1));
+        assertEquals(3, LoadProfile.duration(profile), DELTA);
+        assertEquals(210, requests(profile), DELTA);
+        assertEquals(210, fireTimes(profile));
+    }
+
+    private static void assertProfile(String rpmList, double requests, double duration, int segments) {
+        LoadProfile profile = LoadProfile.parse(rpmList);
+        assertEquals(rpmList, requests, requests(profile), 1e-6);
+        assertEquals(rpmList, duration, LoadProfile.duration(profile), 1e-9);
+        assertEquals(rpmList, segments, segments(profile).size());
+        // the fire times contain every whole request
+        assertEquals(rpmList, (long) Math.floor(requests + 1e-6), fireTimes(profile));
+    }
+
+    private static void assertSegment(double startRpm, double endRpm, double duration, RpmSegment segment) {
+        assertEquals(startRpm, segment.getStartRPM(), DELTA);
+        assertEquals(endRpm, segment.getEndRPM(), DELTA);
+        assertEquals(duration, segment.getDuration(), DELTA);
+    }
+
+    private void assertCsvError(String content, String message) throws IOException {
+        File file = write("invalid.csv", content);
+        try {
+            segments(LoadProfile.parse("file:" + file.getAbsolutePath()));
+            fail("accepted " + content);
+        } catch (RuntimeException e) {
+            assertEquals("Configuration error in RPM file " + file + " " + message, e.getMessage());
+        }
+    }
+
+    private static void assertConfigurationError(String rpmList, String message) {
+        try {
+            LoadProfile.parse(rpmList);
+            fail("accepted " + rpmList);
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Configuration error in RPM list: "));
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<RpmSegment> segments(Iterable<RpmSegment> profile) {
+        List<RpmSegment> segments = new ArrayList<>();
+        for (RpmSegment segment : profile) {
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    private static double requests(Iterable<RpmSegment> profile) {
+        double requests = 0;
+        for (RpmSegment segment : profile) {
+            requests += segment.requestCount();
+        }
+        return requests;
+    }
+
+    private static long fireTimes(Iterable<RpmSegment> profile) {
+        ArrivalIterator arrivals = new ArrivalIterator(profile);
+        long count = 0;
+        while (arrivals.hasNext()) {
+            arrivals.nextLong();
+            count++;
+        }
+        return count;
+    }
+
+    private static long openFiles(File file) throws IOException {
+        long count = 0;
+        Path target = file.toPath().toRealPath();
+        try (Stream<Path> descriptors = Files.list(new File("/proc/self/fd").toPath())) {
+            for (Path descriptor : (Iterable<Path>) descriptors::iterator) {
+                try {
+                    if (Files.readSymbolicLink(descriptor).equals(target)) {
+                        count++;
+                    }
+                } catch (IOException e) {
+                    // closed while listing
+                }
+            }
+        }
+        return count;
+    }
+}
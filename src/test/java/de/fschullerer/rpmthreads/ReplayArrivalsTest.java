@@ -0,0 +1,208 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jmeter.threads.JMeterVariables;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Fire times and variables of small access logs and timestamp files.
+ */
+public class ReplayArrivalsTest {
+
+    private static final long SECOND = 1000L * 1000 * 1000;
+    // epoch timestamps as double are exact to 256 ns
+    private static final double EPOCH_DELTA = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void commonLogIsFiredAtTheRecordedOffsets() throws IOException {
+        ReplayArrivals replay = replay("access.log", 2, 0, 1,
+                "127.0.0.1 - frank [10/Oct/2020:13:55:36 -0700] \"GET /index.html HTTP/1.0\" 200 2326",
+                "10.0.0.2 - - [10/Oct/2020:13:55:38 -0700] \"POST /cart?item=7 HTTP/1.1\" 302 -",
+                "",
+                "# comment",
+                "10.0.0.3 - - [10/Oct/2020:22:55:41 +0200] \"GET /search HTTP/1.1\" 404 512");
+
+        List<JMeterVariables> fields = new ArrayList<>();
+        // speed 2: half of the recorded offsets, time zones are taken into account
+        assertEquals(Arrays.asList(0L, SECOND, 5 * SECOND / 2), fireTimes(replay, fields));
+        assertEquals(0, replay.getSkippedLines());
+
+        JMeterVariables first = fields.get(0);
+        assertEquals("127.0.0.1", first.get("replay_ip"));
+        assertEquals("frank", first.get("replay_user"));
+        assertEquals("10/Oct/2020:13:55:36 -0700", first.get("replay_time"));
+        assertEquals("GET", first.get("replay_method"));
+        assertEquals("/index.html", first.get("replay_path"));
+        assertEquals("HTTP/1.0", first.get("replay_protocol"));
+        assertEquals("200", first.get("replay_status"));
+        assertEquals("2326", first.get("replay_bytes"));
+        assertEquals("127.0.0.1 - frank [10/Oct/2020:13:55:36 -0700] \"GET /index.html HTTP/1.0\" 200 2326",
+                first.get("replay_line"));
+        assertEquals("POST", fields.get(1).get("replay_method"));
+        assertEquals("/cart?item=7", fields.get(1).get("replay_path"));
+        assertEquals("-", fields.get(1).get("replay_bytes"));
+    }
+
+    @Test
+    public void combinedLogSkipsLinesThatCanNotBeReplayed() throws IOException {
+        ReplayArrivals replay = replay("access.log", 1, 0, 1,
+                "10.0.0.1 - - [10/Oct/2020:13:55:36 +0000] \"GET /a HTTP/1.1\" 200 10 \"http://example.com/\" "
+                        + "\"Mozilla/5.0 (X11; Linux x86_64)\"",
+                // no request, e.g. a connection closed by the client
+                "10.0.0.1 - - [10/Oct/2020:13:55:37 +0000] \"-\" 408 0 \"-\" \"-\"",
+                "10.0.0.1 - - [31/Foo/2020:13:55:37 +0000] \"GET /b HTTP/1.1\" 200 10 \"-\" \"curl/7.68.0\"",
+                "not an access log line",
+                "10.0.0.1 - - [10/Oct/2020:13:55:39 +0000] \"GET /c\" 200 10 \"-\" \"curl/7.68.0\"");
+
+        List<JMeterVariables> fields = new ArrayList<>();
+        assertEquals(Arrays.asList(0L, 3 * SECOND), fireTimes(replay, fields));
+        assertEquals(3, replay.getSkippedLines());
+        assertEquals("/a", fields.get(0).get("replay_path"));
+        assertEquals("HTTP/1.1", fields.get(0).get("replay_protocol"));
+        // request without protocol
+        assertEquals("/c", fields.get(1).get("replay_path"));
+        assertEquals("", fields.get(1).get("replay_protocol"));
+    }
+
+    @Test
+    public void epochSecondsWithoutHeader() throws IOException {
+        ReplayArrivals replay = replay("times.csv", 1, 0, 1,
+                "1602338136.5,alice,/home",
+                "1602338137,bob",
+                "1602338140.25,carol,/search,extra");
+
+        List<JMeterVariables> fields = new ArrayList<>();
+        assertTimes(new long[]{0, SECOND / 2, 15 * SECOND / 4}, fireTimes(replay, fields));
+        assertEquals("1602338136.5", fields.get(0).get("replay_1"));
+        assertEquals("alice", fields.get(0).get("replay_2"));
+        assertEquals("/home", fields.get(0).get("replay_3"));
+        // missing columns are empty, columns not in the first line have no variable
+        assertEquals("", fields.get(1).get("replay_3"));
+        assertNull(fields.get(2).get("replay_4"));
+    }
+
+    @Test
+    public void epochMillisWithHeaderColumns() throws IOException {
+        ReplayArrivals replay = replay("times.csv", 0.5, 0, 1,
+                "timestamp, user ,page",
+                "1602338136500,alice,/home",
+                "yesterday,bob,/home",
+                "1602338137250,carol,/search");
+
+        List<JMeterVariables> fields = new ArrayList<>();
+        // speed 0.5: twice the recorded offsets
+        assertTimes(new long[]{0, 3 * SECOND / 2}, fireTimes(replay, fields));
+        assertEquals(1, replay.getSkippedLines());
+        assertEquals("1602338136500", fields.get(0).get("replay_timestamp"));
+        assertEquals("alice", fields.get(0).get("replay_user"));
+        assertEquals("/search", fields.get(1).get("replay_page"));
+    }
+
+    @Test
+    public void isoTimestampsWithZones() throws IOException {
+        ReplayArrivals replay = replay("times.csv", 1, 0, 1,
+                "2020-10-10T13:55:36.250Z,a",
+                "2020-10-10T15:55:37+02:00,b",
+                "2020-10-10T13:55:37.000000125Z,c");
+
+        assertEquals(Arrays.asList(0L, 750L * 1000 * 1000, 750L * 1000 * 1000 + 125),
+                fireTimes(replay, new ArrayList<>()));
+    }
+
+    @Test
+    public void linesOutOfOrderAreFiredImmediately() throws IOException {
+        ReplayArrivals replay = replay("times.csv", 1, 0, 1, "100", "105", "103", "106");
+
+        assertTimes(new long[]{0, 5 * SECOND, 5 * SECOND, 6 * SECOND}, fireTimes(replay, new ArrayList<>()));
+    }
+
+    @Test
+    public void loadGeneratorsTakeTurns() throws IOException {
+        String[] lines = {"100", "101", "102", "103", "104"};
+        ReplayArrivals first = replay("times.csv", 1, 0, 2, lines);
+        ReplayArrivals second = replay("times.csv", 1, 1, 2, lines);
+
+        // offsets to the first line of the whole file
+        assertTimes(new long[]{0, 2 * SECOND, 4 * SECOND}, fireTimes(first, new ArrayList<>()));
+        assertTimes(new long[]{SECOND, 3 * SECOND}, fireTimes(second, new ArrayList<>()));
+    }
+
+    @Test
+    public void gzippedFile() throws IOException {
+        File file = folder.newFile("times.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write("100,a\n102,b\n".getBytes(StandardCharsets.UTF_8));
+        }
+        ReplayArrivals replay = new ReplayArrivals(file.getAbsolutePath(), 1, 0, 1, 10, "Test");
+
+        assertTimes(new long[]{0, 2 * SECOND}, fireTimes(replay, new ArrayList<>()));
+    }
+
+    @Test
+    public void fileWithoutReplayableLinesEnds() throws IOException {
+        ReplayArrivals replay = replay("access.log", 1, 0, 1,
+                "10.0.0.1 - - [10/Oct/2020:13:55:37 +0000] \"-\" 408 0",
+                "10.0.0.1 - - [10/Oct/2020:13:55:38 +0000] \"-\" 408 0");
+
+        assertFalse(replay.hasNext());
+        assertEquals(2, replay.getSkippedLines());
+    }
+
+    @Test
+    public void speedMustBePositive() throws IOException {
+        String path = folder.newFile("times.csv").getAbsolutePath();
+        try {
+            new ReplayArrivals(path, 0, 0, 1, 10, "Test");
+            fail("speed 0 accepted");
+        } catch (RuntimeException e) {
+            assertEquals("Configuration error in replay: speed must be larger than 0: 0.0", e.getMessage());
+        }
+    }
+
+    private ReplayArrivals replay(String fileName, double speed, int nodeIndex, int nodeCount, String... lines)
+            throws IOException {
+        File file = new File(folder.getRoot(), fileName);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        // small read ahead, so the reader has to wait for the thread starter
+        return new ReplayArrivals(file.getAbsolutePath(), speed, nodeIndex, nodeCount, 1, "Test");
+    }
+
+    private static List<Long> fireTimes(ReplayArrivals replay, List<JMeterVariables> fields) {
+        List<Long> times = new ArrayList<>();
+        while (replay.hasNext()) {
+            times.add(replay.nextLong());
+            JMeterVariables variables = new JMeterVariables();
+            replay.putFields(variables);
+            fields.add(variables);
+        }
+        return times;
+    }
+
+    private static void assertTimes(long[] expected, List<Long> times) {
+        assertEquals(times.toString(), expected.length, times.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], times.get(i), EPOCH_DELTA);
+        }
+    }
+}
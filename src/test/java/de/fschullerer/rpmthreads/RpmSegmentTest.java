@@ -0,0 +1,100 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The fire times of one period: {@link RpmSegment#timeOfRequest(double)} is the inverse of the requests
+ * until a time.
+ */
+public class RpmSegmentTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void constantRateFiresEvenly() {
+        RpmSegment segment = new RpmSegment(60, 60, 2);
+        assertEquals(120, segment.requestCount(), DELTA);
+        for (int k = 1; k <= 120; k++) {
+            assertEquals(k / 60d, segment.timeOfRequest(k), DELTA);
+        }
+    }
+
+    @Test
+    public void ascendingRampIsInverseOfRequestCount() {
+        assertInverse(new RpmSegment(10, 20, 1));
+        assertInverse(new RpmSegment(0, 100, 3));
+    }
+
+    @Test
+    public void descendingRampIsInverseOfRequestCount() {
+        assertInverse(new RpmSegment(20, 10, 1));
+        assertInverse(new RpmSegment(50, 5, 2.5));
+    }
+
+    @Test
+    public void descendingToZeroEndsAtTheEndOfThePeriod() {
+        RpmSegment segment = new RpmSegment(10, 0, 2);
+        assertEquals(10, segment.requestCount(), DELTA);
+        assertInverse(segment);
+        // the last request is due exactly when the rate reaches 0
+        assertEquals(2, segment.timeOfRequest(10), DELTA);
+    }
+
+    @Test
+    public void ascendingFromZero() {
+        RpmSegment segment = new RpmSegment(0, 10, 2);
+        assertEquals(10, segment.requestCount(), DELTA);
+        // R(t) = 2.5 * t^2, so the first request is due after sqrt(0.4) minutes
+        assertEquals(Math.sqrt(0.4), segment.timeOfRequest(1), DELTA);
+        assertInverse(segment);
+    }
+
+    @Test
+    public void zeroRateHasNoRequests() {
+        RpmSegment segment = new RpmSegment(0, 0, 5);
+        assertEquals(0, segment.requestCount(), DELTA);
+        assertEquals(0, segment.timeOfRequest(0), DELTA);
+        // no request is reached, so the time is the end of the period
+        assertEquals(5, segment.timeOfRequest(1), DELTA);
+    }
+
+    @Test
+    public void zeroDurationHasNoRequests() {
+        RpmSegment segment = new RpmSegment(10, 10, 0);
+        assertEquals(0, segment.requestCount(), DELTA);
+        assertEquals(0, segment.timeOfRequest(1), DELTA);
+        assertEquals(0, segment.requestsUntil(1), DELTA);
+    }
+
+    @Test
+    public void fractionalCountsAreNotRounded() {
+        RpmSegment segment = new RpmSegment(1.5, 1.5, 1);
+        assertEquals(1.5, segment.requestCount(), DELTA);
+        assertEquals(1 / 1.5, segment.timeOfRequest(1), DELTA);
+        assertEquals(0.5 / 1.5, segment.timeOfRequest(0.5), DELTA);
+    }
+
+    @Test
+    public void restOfPeriodContinuesTheRate() {
+        RpmSegment segment = new RpmSegment(10, 30, 2);
+        RpmSegment rest = segment.from(0.5);
+        assertEquals(15, rest.getStartRPM(), DELTA);
+        assertEquals(1.5, rest.getDuration(), DELTA);
+        assertEquals(segment.requestCount(), segment.requestsUntil(0.5) + rest.requestCount(), DELTA);
+    }
+
+    private static void assertInverse(RpmSegment segment) {
+        int count = (int) Math.floor(segment.requestCount());
+        double last = 0;
+        for (int k = 1; k <= count; k++) {
+            double time = segment.timeOfRequest(k);
+            assertEquals("request " + k + " of " + count, k, segment.requestsUntil(time), 1e-6);
+            assertTrue("request " + k + " not after the one before", time > last);
+            last = time;
+        }
+        assertEquals(segment.getDuration(), segment.timeOfRequest(segment.requestCount()), DELTA);
+    }
+}
@@ -0,0 +1,57 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+/**
+ * The thread group is sent to remote JMeter servers serialized, like the rest of the test plan.
+ */
+public class RpmThreadGroupTest {
+
+    @Test
+    public void serializedWithItsSettings() throws Exception {
+        RpmThreadGroup group = new RpmThreadGroup();
+        group.setName("Checkout");
+        group.setProperty(RpmThreadGroup.RPM_LIST, "0-60-1;60-60-10");
+        group.setProperty(RpmThreadGroup.STARTER_THREADS, 2);
+        group.setProperty(RpmThreadGroup.WEIGHTED_MIX, true);
+
+        RpmThreadGroup copy = roundTrip(group);
+
+        assertEquals("Checkout", copy.getName());
+        assertEquals("0-60-1;60-60-10", copy.getRPMlist());
+        assertEquals(2, copy.getStarterThreads());
+        assertTrue(copy.isWeightedMix());
+    }
+
+    @Test
+    public void runStateStartsEmptyAfterDeserializing() throws Exception {
+        RpmThreadGroup copy = roundTrip(new RpmThreadGroup());
+
+        assertEquals(0, copy.numberOfActiveThreads());
+        assertFalse(copy.stopThread("Checkout 1-1", true));
+        // a remote server may stop a thread group that never started
+        copy.tellThreadsToStop();
+        assertTrue(copy.verifyThreadsStopped());
+        copy.waitThreadsStopped();
+    }
+
+    private static RpmThreadGroup roundTrip(RpmThreadGroup group) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(group);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (RpmThreadGroup) in.readObject();
+        }
+    }
+}
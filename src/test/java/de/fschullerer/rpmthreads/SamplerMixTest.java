@@ -0,0 +1,146 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.apache.jmeter.config.ConfigTestElement;
+import org.apache.jmeter.control.GenericController;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.junit.Test;
+
+/**
+ * Variants of the thread group tree and the order in which the weighted mix chooses them.
+ */
+public class SamplerMixTest {
+
+    private static final String[] NAMES = {"Login", "Search", "Checkout"};
+
+    @Test
+    public void exactCountsInEveryWeightCycle() {
+        SamplerMix mix = SamplerMix.create(createTree(), "Login=3;Search=1;Checkout=2");
+        int[] weights = {3, 1, 2};
+        int[] last = {-1, -1, -1};
+        int request = 0;
+        for (int cycle = 0; cycle < 60; cycle++) {
+            int[] counts = new int[3];
+            for (int i = 0; i < 6; i++, request++) {
+                int variant = mix.next();
+                counts[variant]++;
+                // the requests of one variant are spread evenly
+                if (last[variant] >= 0) {
+                    assertTrue(request - last[variant] <= 6 / weights[variant] + 1);
+                }
+                last[variant] = request;
+            }
+            assertArrayEquals(weights, counts);
+        }
+    }
+
+    @Test
+    public void fractionalWeights() {
+        SamplerMix mix = SamplerMix.create(createTree(), "Login=0.5;Search=0.25;Checkout=0.25");
+        for (int cycle = 0; cycle < 10; cycle++) {
+            assertArrayEquals(new int[]{2, 1, 1}, counts(mix, 4));
+        }
+    }
+
+    @Test
+    public void unlistedNamesHaveWeightOne() {
+        SamplerMix mix = SamplerMix.create(createTree(), "Search=2");
+        assertEquals("Login=1.0, Search=2.0, Checkout=1.0", mix.toString());
+        for (int cycle = 0; cycle < 10; cycle++) {
+            assertArrayEquals(new int[]{1, 2, 1}, counts(mix, 4));
+        }
+
+        // an empty list is an even mix
+        SamplerMix even = SamplerMix.create(createTree(), "");
+        assertArrayEquals(new int[]{100, 100, 100}, counts(even, 300));
+    }
+
+    @Test
+    public void weightZeroIsNeverChosen() {
+        SamplerMix mix = SamplerMix.create(createTree(), "Login=1; Search=0 ;Checkout=3;");
+        assertEquals("Login=1.0, Checkout=3.0", mix.toString());
+        assertEquals(2, mix.getVariants().length);
+        assertArrayEquals(new int[]{25, 75}, Arrays.copyOf(counts(mix, 100), 2));
+    }
+
+    @Test
+    public void variantsKeepAllOtherElements() {
+        ListedHashTree tree = createTree();
+        Object group = tree.getArray()[0];
+        Object config = tree.getTree(group).getArray()[0];
+        SamplerMix mix = SamplerMix.create(tree, "Search=0");
+
+        ListedHashTree[] variants = mix.getVariants();
+        for (int i = 0; i < variants.length; i++) {
+            HashTree groupTree = variants[i].getTree(group);
+            Object[] children = groupTree.getArray();
+            assertEquals(2, children.length);
+            assertEquals(config, children[0]);
+            GenericController controller = (GenericController) children[1];
+            assertEquals(new String[]{"Login", "Checkout"}[i], controller.getName());
+            // the elements below the sampler or controller are the same
+            assertEquals(tree.getTree(group).getTree(controller).list(), groupTree.getTree(controller).list());
+        }
+    }
+
+    @Test
+    public void stockIsSplitByWeight() {
+        SamplerMix mix = SamplerMix.create(createTree(), "Login=6;Search=3;Checkout=1");
+        assertArrayEquals(new int[]{6, 3, 1}, mix.stockCapacities(10));
+        // every variant keeps at least one tree
+        assertArrayEquals(new int[]{2, 1, 1}, mix.stockCapacities(3));
+        assertArrayEquals(new int[]{0, 0, 0}, mix.stockCapacities(0));
+    }
+
+    @Test
+    public void invalidWeightListsAreRejected() {
+        assertConfigurationError("Login", "name=weight expected");
+        assertConfigurationError("Login=many", "weight is not a positive number");
+        assertConfigurationError("Login=-1", "weight is not a positive number");
+        assertConfigurationError("Login=1;Payment=2", "no sampler or controller named [Payment]");
+        assertConfigurationError("Login=0;Search=0;Checkout=0", "no sampler or controller with a weight");
+    }
+
+    private static void assertConfigurationError(String weightList, String message) {
+        try {
+            SamplerMix.create(createTree(), weightList);
+            fail("accepted " + weightList);
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Configuration error in weighted mix: "));
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static int[] counts(SamplerMix mix, int requests) {
+        int[] counts = new int[3];
+        for (int i = 0; i < requests; i++) {
+            counts[mix.next()]++;
+        }
+        return counts;
+    }
+
+    private static ListedHashTree createTree() {
+        RpmThreadGroup group = new RpmThreadGroup();
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(group);
+        ConfigTestElement config = new ConfigTestElement();
+        config.setName("Defaults");
+        tree.add(group, config);
+        for (String name : NAMES) {
+            GenericController controller = new GenericController();
+            controller.setName(name);
+            tree.add(group, controller);
+            ConfigTestElement child = new ConfigTestElement();
+            child.setName(name + " config");
+            tree.getTree(group).add(controller, child);
+        }
+        return tree;
+    }
+}
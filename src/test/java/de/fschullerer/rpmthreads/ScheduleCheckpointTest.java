@@ -0,0 +1,169 @@
+package de.fschullerer.rpmthreads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A test resumed from a checkpoint file fires the rest of the requests of the RPM list at the same times as
+ * a test that did not die.
+ */
+public class ScheduleCheckpointTest {
+
+    private static final double NANOS_PER_MINUTE = 60d * 1000 * 1000 * 1000;
+
+    // 15 minutes, 450 requests
+    private static final String RPM_LIST = "10-20-5;20-40-5;40-0-5";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumedTestFiresTheRestOfTheRpmList() throws IOException {
+        String path = checkpointPath();
+        for (double minutes : new double[]{0.2, 4.9, 7.3, 12.81}) {
+            writeCheckpoint(path, RPM_LIST, minutes);
+            Properties properties = load(path);
+            double offset = ScheduleCheckpoint.readResumeOffset(path, "Test", LoadProfile.parse(RPM_LIST));
+            assertEquals(Double.parseDouble(properties.getProperty(ScheduleCheckpoint.ELAPSED_MINUTES)), offset, 0);
+            // the checkpoint is written after the given minutes, not before
+            assertTrue(offset >= minutes && offset < minutes + 0.1);
+            assertEquals((long) (minutes / 5),
+                    Long.parseLong(properties.getProperty(ScheduleCheckpoint.SEGMENT_INDEX)));
+
+            long offsetNanos = Math.round(offset * NANOS_PER_MINUTE);
+            for (int shardCount : new int[]{1, 3}) {
+                for (int shard = 0; shard < shardCount; shard++) {
+                    List<Long> expected = new ArrayList<>();
+                    for (long time : fireTimes(new ArrivalIterator(LoadProfile.parse(RPM_LIST), shard,
+                            shardCount))) {
+                        if (time > offsetNanos) {
+                            expected.add(time);
+                        }
+                    }
+                    ResumedProfile resumed = new ResumedProfile(LoadProfile.parse(RPM_LIST), offset);
+                    List<Long> times = fireTimes(new ArrivalIterator(resumed, resumed.getRequestsBefore(), shard,
+                            shardCount));
+                    assertEquals("after " + minutes + " minutes", expected.size(), times.size());
+                    for (int i = 0; i < times.size(); i++) {
+                        // the resumed test starts at the offset, the times differ only by rounding
+                        assertEquals((double) expected.get(i), offsetNanos + times.get(i), 1000);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkpointIsReplacedAtomically() throws IOException {
+        String path = checkpointPath();
+        ScheduleCheckpoint checkpoint = new ScheduleCheckpoint(path, "Test", LoadProfile.parse(RPM_LIST), 2,
+                System.nanoTime());
+        checkpoint.write();
+        double first = Double.parseDouble(load(path).getProperty(ScheduleCheckpoint.ELAPSED_MINUTES));
+        checkpoint.write();
+        double second = Double.parseDouble(load(path).getProperty(ScheduleCheckpoint.ELAPSED_MINUTES));
+
+        assertTrue(first >= 2 && second >= first);
+        // no temporary file is left behind
+        assertFalse(new File(path + ".tmp").exists());
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void checkpointOfAnotherRpmListIsRejected() throws IOException {
+        String path = checkpointPath();
+        writeCheckpoint(path, RPM_LIST, 7.3);
+        try {
+            ScheduleCheckpoint.readResumeOffset(path, "Test", LoadProfile.parse("10-20-10;20-0-5"));
+            fail("checkpoint of another RPM list resumed");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Configuration error: checkpoint file " + path
+                                                                          + " does not match the RPM list"));
+        }
+        // same periods, other rates
+        try {
+            ScheduleCheckpoint.readResumeOffset(path, "Test", LoadProfile.parse("10-20-5;20-80-5;80-0-5"));
+            fail("checkpoint of another RPM list resumed");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("does not match the RPM list"));
+        }
+    }
+
+    @Test
+    public void endedTestStartsFromTheBeginning() throws IOException {
+        String path = checkpointPath();
+        ScheduleCheckpoint checkpoint = new ScheduleCheckpoint(path, "Test", LoadProfile.parse(RPM_LIST), 0,
+                System.nanoTime() - Math.round(7.3 * NANOS_PER_MINUTE));
+        checkpoint.end();
+
+        assertEquals("true", load(path).getProperty(ScheduleCheckpoint.ENDED));
+        assertEquals(0, ScheduleCheckpoint.readResumeOffset(path, "Test", LoadProfile.parse(RPM_LIST)), 0);
+    }
+
+    @Test
+    public void finishedRpmListDeletesTheCheckpoint() throws IOException {
+        String path = checkpointPath();
+        writeCheckpoint(path, RPM_LIST, 7.3);
+        assertTrue(new File(path).isFile());
+
+        writeCheckpoint(path, RPM_LIST, 15.1);
+        assertFalse(new File(path).exists());
+        assertEquals(0, ScheduleCheckpoint.readResumeOffset(path, "Test", LoadProfile.parse(RPM_LIST)), 0);
+    }
+
+    @Test
+    public void unreadableCheckpointIsRejected() throws IOException {
+        String path = checkpointPath();
+        Files.write(new File(path).toPath(), "elapsed_minutes=soon\n".getBytes(StandardCharsets.ISO_8859_1));
+        try {
+            ScheduleCheckpoint.readResumeOffset(path, "Test", LoadProfile.parse(RPM_LIST));
+            fail("unreadable checkpoint resumed");
+        } catch (RuntimeException e) {
+            assertEquals("Configuration error: can not read checkpoint file " + path, e.getMessage());
+        }
+    }
+
+    private String checkpointPath() {
+        return new File(folder.getRoot(), "checkpoint.properties").getAbsolutePath();
+    }
+
+    /**
+     * Write the checkpoint of a test that is running for some minutes.
+     */
+    private static void writeCheckpoint(String path, String rpmList, double minutes) {
+        new ScheduleCheckpoint(path, "Test", LoadProfile.parse(rpmList), 0,
+                System.nanoTime() - Math.round(minutes * NANOS_PER_MINUTE)).write();
+    }
+
+    private static Properties load(String path) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    private static List<Long> fireTimes(ArrivalIterator arrivals) {
+        List<Long> times = new ArrayList<>();
+        while (arrivals.hasNext()) {
+            times.add(arrivals.nextLong());
+        }
+        return times;
+    }
+}